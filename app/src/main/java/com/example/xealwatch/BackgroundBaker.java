@@ -0,0 +1,99 @@
+package com.example.xealwatch;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs background baking jobs on a low-priority worker thread,
+ * so full-screen bitmaps aren't painted in the middle of a frame.
+ */
+public class BackgroundBaker {
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final AtomicLong mBusyNanos = new AtomicLong();
+
+    public BackgroundBaker() {
+        mThread = new HandlerThread("BackgroundBaker", Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Runs a job on the worker thread after a delay.
+     *
+     * @param job     job to run
+     * @param delayMs delay in milliseconds
+     */
+    public void schedule(Runnable job, long delayMs) {
+        mHandler.postDelayed(timed(job), delayMs);
+    }
+
+    /**
+     * Runs a job on the worker thread after a delay, tagged so it can be cancelled with cancel().
+     *
+     * @param job     job to run
+     * @param token   tag shared by jobs that are cancelled together
+     * @param delayMs delay in milliseconds
+     */
+    public void schedule(Runnable job, Object token, long delayMs) {
+        mHandler.postAtTime(timed(job), token, SystemClock.uptimeMillis() + delayMs);
+    }
+
+    /* Wraps a job so the time it runs for is added to mBusyNanos */
+    private Runnable timed(Runnable job) {
+        return () -> {
+            long start = System.nanoTime();
+            try {
+                job.run();
+            } finally {
+                mBusyNanos.addAndGet(System.nanoTime() - start);
+            }
+        };
+    }
+
+    /* Total time spent running jobs, in nanoseconds */
+    public long getBusyNanos() {
+        return mBusyNanos.get();
+    }
+
+    /**
+     * Blocks until every job that is already due has finished. Jobs scheduled with a
+     * delay that hasn't passed yet aren't waited for. Don't call from the worker thread.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitIdle() throws InterruptedException {
+        CountDownLatch idle = new CountDownLatch(1);
+        mHandler.post(idle::countDown);
+        idle.await();
+    }
+
+    /**
+     * Drops the jobs scheduled with a token that haven't started yet.
+     *
+     * @param token tag the jobs were scheduled with
+     */
+    public void cancel(Object token) {
+        mHandler.removeCallbacksAndMessages(token);
+    }
+
+    /**
+     * Drops all jobs that haven't started yet.
+     */
+    public void cancelAll() {
+        mHandler.removeCallbacksAndMessages(null);
+    }
+
+    /**
+     * Stops the worker thread once the current job finishes. Call from onDestroy.
+     */
+    public void quit() {
+        cancelAll();
+        mThread.quitSafely();
+    }
+}
@@ -0,0 +1,299 @@
+package com.example.xealwatch;
+
+import android.content.ContentResolver;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes background images straight to the surface size, so a full-resolution copy
+ * never has to be held just to be scaled down.
+ * Reads the bounds first, subsamples by the largest power of two that keeps the image at
+ * least as large as needed, then lets the decoder scale the rest of the way.
+ */
+public class BackgroundDecoder {
+    private static final String TAG = "BackgroundDecoder";
+
+    /* Photos with more pixels than this are decoded in strips, rather than in one go */
+    private static final int LARGE_IMAGE_PIXELS = 4 * 1024 * 1024;
+    /* Roughly how many bytes each decoded strip may take */
+    private static final int STRIP_BYTES = 256 * 1024;
+
+    private BackgroundDecoder() {
+    }
+
+    /**
+     * Decodes a drawable resource scaled to the surface.
+     *
+     * @param resources     resources to decode from
+     * @param resId         drawable resource id
+     * @param targetWidth   surface width
+     * @param targetHeight  surface height
+     * @param cropToSurface if true, scale to cover the surface and crop the centre to exactly
+     *                      the surface (the bounding box of the visible circle on round screens);
+     *                      otherwise scale to the surface width, keeping the aspect ratio
+     * @return the decoded bitmap, or null if it couldn't be decoded
+     */
+    public static Bitmap decodeResource(Resources resources, int resId, int targetWidth, int targetHeight,
+                                        boolean cropToSurface) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        options.inScaled = false;
+        BitmapFactory.decodeResource(resources, resId, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+        int sourceWidth = options.outWidth;
+        int sourceHeight = options.outHeight;
+        float scale = getScale(sourceWidth, sourceHeight, targetWidth, targetHeight, cropToSurface);
+        int scaledWidth = Math.max(1, Math.round(sourceWidth * scale));
+        int scaledHeight = Math.max(1, Math.round(sourceHeight * scale));
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = getSampleSize(sourceWidth, sourceHeight, scaledWidth, scaledHeight);
+        int sampledWidth = sourceWidth / options.inSampleSize;
+        // The decoder scales by inTargetDensity / inDensity after subsampling.
+        if (sampledWidth != scaledWidth) {
+            options.inScaled = true;
+            options.inDensity = sampledWidth;
+            options.inTargetDensity = scaledWidth;
+        }
+        Bitmap bitmap = BitmapFactory.decodeResource(resources, resId, options);
+        if (bitmap == null) return null;
+
+        bitmap = scaleExactly(bitmap, scaledWidth, scaledHeight);
+        if (cropToSurface) {
+            bitmap = cropCentre(bitmap, targetWidth, targetHeight);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decodes a photo scaled to the surface, applying its EXIF orientation. The photo is opened
+     * through the ContentResolver, so it can be any document the app holds a read grant for,
+     * such as one the user picked with ACTION_OPEN_DOCUMENT.
+     * Memory stays bounded by the surface size: only the part of the photo that ends up on
+     * screen is read, through a BitmapRegionDecoder, and large photos are decoded in subsampled
+     * strips that are scaled into the result one at a time, so they are never fully decoded.
+     *
+     * @param resolver      resolver to open the photo with
+     * @param uri           the photo
+     * @param targetWidth   surface width
+     * @param targetHeight  surface height
+     * @param cropToSurface as for decodeResource
+     * @return the decoded bitmap, or null if it couldn't be opened or decoded
+     */
+    public static Bitmap decodeUri(ContentResolver resolver, Uri uri, int targetWidth, int targetHeight,
+                                   boolean cropToSurface) {
+        Matrix orientation = new Matrix();
+        boolean transposed = readOrientation(resolver, uri, orientation);
+        Bitmap bitmap;
+        try (ParcelFileDescriptor descriptor = resolver.openFileDescriptor(uri, "r")) {
+            if (descriptor == null) return null;
+            BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(descriptor.getFileDescriptor(), false);
+            if (decoder == null) return null;
+            try {
+                bitmap = decodeVisibleRegion(decoder, transposed, targetWidth, targetHeight, cropToSurface);
+            } finally {
+                decoder.recycle();
+            }
+        } catch (IOException | SecurityException e) {
+            // The photo was deleted, isn't an image the decoder supports, or the grant was revoked.
+            Log.w(TAG, "Can't open " + uri, e);
+            return null;
+        }
+        if (bitmap == null || orientation.isIdentity()) return bitmap;
+
+        Bitmap oriented = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(),
+                orientation, true);
+        if (oriented != bitmap) bitmap.recycle();
+        return oriented;
+    }
+
+    /* Decodes the centred part of the photo that is visible on the surface, before orientation */
+    private static Bitmap decodeVisibleRegion(BitmapRegionDecoder decoder, boolean transposed,
+                                              int targetWidth, int targetHeight, boolean cropToSurface) {
+        int sourceWidth = decoder.getWidth();
+        int sourceHeight = decoder.getHeight();
+        if (sourceWidth <= 0 || sourceHeight <= 0) return null;
+
+        /* Work out the result in the photo's own orientation, and rotate it at the end. */
+        int orientedWidth = transposed ? sourceHeight : sourceWidth;
+        int orientedHeight = transposed ? sourceWidth : sourceHeight;
+        float scale = getScale(orientedWidth, orientedHeight, targetWidth, targetHeight, cropToSurface);
+        int resultWidth = Math.max(1, Math.round(orientedWidth * scale));
+        int resultHeight = Math.max(1, Math.round(orientedHeight * scale));
+        if (cropToSurface) {
+            resultWidth = Math.min(resultWidth, targetWidth);
+            resultHeight = Math.min(resultHeight, targetHeight);
+        }
+        if (transposed) {
+            int swap = resultWidth;
+            resultWidth = resultHeight;
+            resultHeight = swap;
+        }
+
+        /* The part of the photo that is visible, centred */
+        int regionWidth = Math.min(sourceWidth, Math.round(resultWidth / scale));
+        int regionHeight = Math.min(sourceHeight, Math.round(resultHeight / scale));
+        Rect region = new Rect((sourceWidth - regionWidth) / 2, (sourceHeight - regionHeight) / 2,
+                (sourceWidth + regionWidth) / 2, (sourceHeight + regionHeight) / 2);
+        int sampleSize = getSampleSize(region.width(), region.height(), resultWidth, resultHeight);
+
+        if ((long) sourceWidth * sourceHeight > LARGE_IMAGE_PIXELS) {
+            return decodeInStrips(decoder, region, sampleSize, resultWidth, resultHeight);
+        }
+        return decodeRegion(decoder, region, sampleSize, resultWidth, resultHeight);
+    }
+
+    /**
+     * Reads the EXIF orientation of a photo.
+     *
+     * @param resolver       resolver to open the photo with
+     * @param uri            the photo
+     * @param outOrientation receives the transform that displays the photo upright
+     * @return whether the photo's width and height are swapped when upright
+     */
+    private static boolean readOrientation(ContentResolver resolver, Uri uri, Matrix outOrientation) {
+        int orientation;
+        try (InputStream input = resolver.openInputStream(uri)) {
+            if (input == null) return false;
+            orientation = new ExifInterface(input).getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                    ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException | SecurityException e) {
+            return false;
+        }
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                outOrientation.setScale(-1, 1);
+                return false;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                outOrientation.setRotate(180);
+                return false;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                outOrientation.setScale(1, -1);
+                return false;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                outOrientation.setRotate(90);
+                outOrientation.postScale(-1, 1);
+                return true;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                outOrientation.setRotate(90);
+                return true;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                outOrientation.setRotate(-90);
+                outOrientation.postScale(-1, 1);
+                return true;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                outOrientation.setRotate(-90);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /* Decodes just the region, subsampled, in one go, then scales it to the result */
+    private static Bitmap decodeRegion(BitmapRegionDecoder decoder, Rect region, int sampleSize,
+                                       int width, int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        Bitmap sampled = decoder.decodeRegion(region, options);
+        if (sampled == null) return null;
+        return scaleExactly(sampled, width, height);
+    }
+
+    /*
+     * Decodes a region of the photo one horizontal strip at a time, scaling each strip into
+     * the result. At most one subsampled strip is held besides the result, and its bitmap is
+     * reused for every strip.
+     */
+    private static Bitmap decodeInStrips(BitmapRegionDecoder decoder, Rect region, int sampleSize,
+                                         int width, int height) {
+        Bitmap result = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(result);
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+
+        int sampledRowBytes = Math.max(1, region.width() / sampleSize) * 4;
+        int stripHeight = Math.max(1, STRIP_BYTES / sampledRowBytes) * sampleSize;
+        float rowScale = height / (float) region.height();
+        Rect stripRegion = new Rect();
+        Rect source = new Rect();
+        Rect destination = new Rect();
+        for (int top = region.top; top < region.bottom; top += stripHeight) {
+            int bottom = Math.min(top + stripHeight, region.bottom);
+            stripRegion.set(region.left, top, region.right, bottom);
+            Bitmap strip = decoder.decodeRegion(stripRegion, options);
+            if (strip == null) {
+                result.recycle();
+                return null;
+            }
+            options.inBitmap = strip;
+            /*
+             * A reused bitmap isn't resized, so a shorter last strip only fills its top rows
+             * and the rows below still hold the previous strip; draw just the decoded rows.
+             */
+            source.set(0, 0, strip.getWidth(),
+                    Math.min(strip.getHeight(), (int) Math.ceil((bottom - top) / (float) sampleSize)));
+            // Strips land on whole rows, so neighbouring strips don't overlap or leave gaps.
+            destination.set(0, Math.round((top - region.top) * rowScale),
+                    width, Math.round((bottom - region.top) * rowScale));
+            canvas.drawBitmap(strip, source, destination, paint);
+        }
+        if (options.inBitmap != null) options.inBitmap.recycle();
+        return result;
+    }
+
+    /* Scale factor from the source image to what we want to end up with */
+    static float getScale(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight,
+                          boolean cropToSurface) {
+        float widthScale = targetWidth / (float) sourceWidth;
+        if (!cropToSurface) return widthScale;
+        return Math.max(widthScale, targetHeight / (float) sourceHeight);
+    }
+
+    /**
+     * @return the largest power of two that keeps the subsampled image at least scaledWidth x scaledHeight
+     */
+    static int getSampleSize(int sourceWidth, int sourceHeight, int scaledWidth, int scaledHeight) {
+        int sampleSize = 1;
+        while (sourceWidth / (sampleSize * 2) >= scaledWidth
+                && sourceHeight / (sampleSize * 2) >= scaledHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /* Fixes off-by-one rounding from the decoder, if any */
+    private static Bitmap scaleExactly(Bitmap bitmap, int width, int height) {
+        if (bitmap.getWidth() == width && bitmap.getHeight() == height) return bitmap;
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+        if (scaled != bitmap) bitmap.recycle();
+        return scaled;
+    }
+
+    /* Crops the centre of the bitmap to at most width x height */
+    static Bitmap cropCentre(Bitmap bitmap, int width, int height) {
+        if (bitmap.getWidth() <= width && bitmap.getHeight() <= height) return bitmap;
+        int cropWidth = Math.min(width, bitmap.getWidth());
+        int cropHeight = Math.min(height, bitmap.getHeight());
+        Bitmap cropped = Bitmap.createBitmap(bitmap,
+                (bitmap.getWidth() - cropWidth) / 2,
+                (bitmap.getHeight() - cropHeight) / 2,
+                cropWidth, cropHeight);
+        if (cropped != bitmap) bitmap.recycle();
+        return cropped;
+    }
+}
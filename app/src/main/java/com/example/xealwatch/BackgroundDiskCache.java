@@ -0,0 +1,198 @@
+package com.example.xealwatch;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * Keeps baked backgrounds on disk, so a restarted process can skip decoding and baking.
+ * Each variant (WatchState, or dimmed for mute) is one file: a small header followed by the bitmap's raw pixels, written and
+ * read through memory-mapped buffers with copyPixelsToBuffer and copyPixelsFromBuffer.
+ * Files are keyed by surface size, date, state, the colors baked in, the source image and
+ * the pixel format, so a stale file is never read; it just ages out.
+ * Only used from the BackgroundBaker thread.
+ */
+public class BackgroundDiskCache {
+    private static final String TAG = "BackgroundDiskCache";
+
+    private static final int MAGIC = 0x58424731; // "XBG1"
+    private static final int HEADER_BYTES = 4 * 4; // magic, width, height, config
+    /* Yesterday's, today's and tomorrow's backgrounds */
+    private static final int DATES_KEPT = 3;
+    /* One file per variant: full, gray, black and dimmed */
+    private static final int VARIANTS_PER_DATE = 4;
+    private static final int MAX_FILES = DATES_KEPT * VARIANTS_PER_DATE;
+
+    private static final String VARIANT_COLOR = "full";
+    private static final String VARIANT_GREY = "gray";
+    private static final String VARIANT_BLACK = "black";
+    private static final String VARIANT_DIMMED = "dimmed";
+    private static final String SUFFIX = ".bg";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File mDirectory;
+    private long mHits = 0;
+    private long mMisses = 0;
+    private long mWrites = 0;
+
+    /**
+     * @param directory app-private directory to keep files in; created if missing
+     */
+    public BackgroundDiskCache(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Loads the backgrounds for a date; the dimmed one is optional.
+     *
+     * @param width      surface width
+     * @param height     surface height
+     * @param date       date the backgrounds were baked for
+     * @param colorHash  hash of the colors baked into the backgrounds
+     * @param sourceHash identifies the source image and how it was decoded
+     * @param masks      whether grey and black are stored as ALPHA_8 masks
+     * @return the backgrounds, or null if any of them is missing or unreadable
+     */
+    public CachedBackgrounds.BakedBackgrounds load(int width, int height, int date, int colorHash,
+                                                   long sourceHash, boolean masks) {
+        Bitmap color = readBitmap(getFile(width, height, date, VARIANT_COLOR, colorHash, sourceHash, masks),
+                width, height);
+        Bitmap greyscale = color == null ? null
+                : readBitmap(getFile(width, height, date, VARIANT_GREY, colorHash, sourceHash, masks),
+                width, height);
+        Bitmap black = greyscale == null ? null
+                : readBitmap(getFile(width, height, date, VARIANT_BLACK, colorHash, sourceHash, masks),
+                width, height);
+        if (black == null) {
+            mMisses++;
+            return null;
+        }
+        // Only written when dimmed backgrounds are built, which sourceHash reflects.
+        Bitmap dimmed = readBitmap(getFile(width, height, date, VARIANT_DIMMED, colorHash, sourceHash, masks),
+                width, height);
+        mHits++;
+        return new CachedBackgrounds.BakedBackgrounds(color, greyscale, black, dimmed, date);
+    }
+
+    /**
+     * Writes the backgrounds for a date, then trims old files.
+     *
+     * @param baked      backgrounds to write
+     * @param colorHash  hash of the colors baked into the backgrounds
+     * @param sourceHash identifies the source image and how it was decoded
+     * @param masks      whether grey and black are stored as ALPHA_8 masks
+     */
+    public void store(CachedBackgrounds.BakedBackgrounds baked, int colorHash, long sourceHash, boolean masks) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "Can't create " + mDirectory);
+            return;
+        }
+        int width = baked.color.getWidth();
+        int height = baked.color.getHeight();
+        writeBitmap(getFile(width, height, baked.date, VARIANT_COLOR, colorHash, sourceHash, masks), baked.color);
+        writeBitmap(getFile(width, height, baked.date, VARIANT_GREY, colorHash, sourceHash, masks), baked.greyscale);
+        writeBitmap(getFile(width, height, baked.date, VARIANT_BLACK, colorHash, sourceHash, masks), baked.black);
+        if (baked.dimmed != null) {
+            writeBitmap(getFile(width, height, baked.date, VARIANT_DIMMED, colorHash, sourceHash, masks),
+                    baked.dimmed);
+        }
+        trim();
+    }
+
+    /* Hit, miss and write counts, for dumpsys */
+    public String getStats() {
+        return "diskHits=" + mHits + " diskMisses=" + mMisses + " diskWrites=" + mWrites;
+    }
+
+    private File getFile(int width, int height, int date, String variant, int colorHash, long sourceHash,
+                         boolean masks) {
+        String name = String.format(Locale.US, "%dx%d-%d-%s-%08x-%016x-%s%s",
+                width, height, date, variant, colorHash, sourceHash,
+                masks ? "mask" : "argb", SUFFIX);
+        return new File(mDirectory, name);
+    }
+
+    /* Maps a file and copies its pixels into a new bitmap, or returns null */
+    private static Bitmap readBitmap(File file, int width, int height) {
+        if (!file.isFile()) return null;
+        try (RandomAccessFile input = new RandomAccessFile(file, "r");
+             FileChannel channel = input.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.nativeOrder());
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC
+                    || buffer.getInt() != width || buffer.getInt() != height) {
+                return null;
+            }
+            int config = buffer.getInt();
+            if (config < 0 || config >= Bitmap.Config.values().length) return null;
+
+            Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.values()[config]);
+            if (buffer.remaining() < bitmap.getByteCount()) {
+                bitmap.recycle();
+                return null;
+            }
+            bitmap.copyPixelsFromBuffer(buffer);
+            // Mark as recently used, so trim() keeps it.
+            file.setLastModified(System.currentTimeMillis());
+            return bitmap;
+        } catch (IOException e) {
+            Log.w(TAG, "Can't read " + file, e);
+            return null;
+        }
+    }
+
+    /* Writes a bitmap through a mapped buffer, then renames it into place so readers never see half a file */
+    private void writeBitmap(File file, Bitmap bitmap) {
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        try (RandomAccessFile output = new RandomAccessFile(temp, "rw");
+             FileChannel channel = output.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_BYTES + bitmap.getByteCount());
+            buffer.order(ByteOrder.nativeOrder());
+            buffer.putInt(MAGIC);
+            buffer.putInt(bitmap.getWidth());
+            buffer.putInt(bitmap.getHeight());
+            buffer.putInt(bitmap.getConfig().ordinal());
+            bitmap.copyPixelsToBuffer(buffer);
+            buffer.force();
+        } catch (IOException e) {
+            Log.w(TAG, "Can't write " + file, e);
+            temp.delete();
+            return;
+        }
+        if (temp.renameTo(file)) {
+            mWrites++;
+        } else {
+            temp.delete();
+        }
+    }
+
+    /*
+     * Deletes temp files left by a write that was interrupted, such as by the process being
+     * killed, then the least recently used files beyond MAX_FILES. Writes only happen on this
+     * thread and have all finished by now, so any temp file is stale.
+     */
+    private void trim() {
+        File[] temps = mDirectory.listFiles((dir, name) -> name.endsWith(TEMP_SUFFIX));
+        if (temps != null) {
+            for (File temp : temps) {
+                temp.delete();
+            }
+        }
+        File[] files = mDirectory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null || files.length <= MAX_FILES) return;
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified).reversed());
+        for (int i = MAX_FILES; i < files.length; i++) {
+            files[i].delete();
+        }
+    }
+}
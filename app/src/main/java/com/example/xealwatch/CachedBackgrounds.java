@@ -6,18 +6,60 @@ import android.graphics.Color;
 import android.graphics.Paint;
 
 public class CachedBackgrounds {
-    private Bitmap mRawBackground = null;
-    private Bitmap mRawGreyBackground = null;
-    private Bitmap mCachedBackground = null;
-    private Bitmap mCachedGreyBackground = null;
-    private Bitmap mCachedBlackBackground = null;
+    private volatile Bitmap mRawBackground = null;
+    private volatile Bitmap mRawGreyBackground = null;
+    private volatile Bitmap mRawDimmedBackground = null;
+    /* In mute mode, the dimmed backgrounds are used in place of the colour ones, if built */
+    private boolean mMuteMode = false;
+
+    /* The baked set currently on screen, and one built ahead of time for a later date */
+    private volatile BakedBackgrounds mCurrent = null;
+    private volatile BakedBackgrounds mPending = null;
+
+    private long mRebuildCount = 0;
+    private long mPromotionCount = 0;
 
-    private int mDate = -1;
     private final Paint mBlackPaint = new Paint();
+    /* Draws ALPHA_8 backgrounds as white over black */
+    private final Paint mMaskPaint = new Paint();
+
+    /**
+     * Colour, grey and black backgrounds with ticks and date baked in, for one date,
+     * and optionally a dimmed colour background for mute mode.
+     * Immutable, so a set built on another thread can be published by swapping a reference.
+     */
+    public static class BakedBackgrounds {
+        final Bitmap color;
+        final Bitmap greyscale;
+        final Bitmap black;
+        final Bitmap dimmed;
+        final int date;
+
+        public BakedBackgrounds(Bitmap color, Bitmap greyscale, Bitmap black, int date) {
+            this(color, greyscale, black, null, date);
+        }
+
+        public BakedBackgrounds(Bitmap color, Bitmap greyscale, Bitmap black, Bitmap dimmed, int date) {
+            this.color = color;
+            this.greyscale = greyscale;
+            this.black = black;
+            this.dimmed = dimmed;
+            this.date = date;
+        }
+
+        boolean matches(int date, int width, int height) {
+            return this.date == date && hasSize(width, height);
+        }
+
+        boolean hasSize(int width, int height) {
+            return color.getWidth() == width && color.getHeight() == height;
+        }
+    }
 
     public boolean cacheRequireRebuild(int date)
     {
-        return (date != mDate);
+        BakedBackgrounds current = mCurrent;
+        return (current == null || date != current.date);
     }
 
     /**
@@ -25,6 +67,48 @@ public class CachedBackgrounds {
      */
     public CachedBackgrounds() {
         mBlackPaint.setColor(Color.BLACK);
+        mMaskPaint.setColor(Color.WHITE);
+    }
+
+    /* The baked set currently on screen, or null */
+    public BakedBackgrounds getCurrent() {
+        return mCurrent;
+    }
+
+    /**
+     * Frees the raw images; used once they have been baked when memory is tight.
+     */
+    public void dropRawBackgrounds() {
+        mRawBackground = null;
+        mRawGreyBackground = null;
+        mRawDimmedBackground = null;
+    }
+
+    /**
+     * Drops raw, current and pending backgrounds, e.g. before loading new images.
+     */
+    public void clear() {
+        dropRawBackgrounds();
+        mCurrent = null;
+        mPending = null;
+    }
+
+    /**
+     * @return bytes held by raw, current and pending backgrounds
+     */
+    public long getByteCount() {
+        long total = getByteCount(mRawBackground) + getByteCount(mRawGreyBackground)
+                + getByteCount(mRawDimmedBackground);
+        for (BakedBackgrounds baked : new BakedBackgrounds[]{mCurrent, mPending}) {
+            if (baked == null) continue;
+            total += getByteCount(baked.color) + getByteCount(baked.greyscale) + getByteCount(baked.black)
+                    + getByteCount(baked.dimmed);
+        }
+        return total;
+    }
+
+    private static long getByteCount(Bitmap bitmap) {
+        return bitmap == null ? 0 : bitmap.getAllocationByteCount();
     }
 
     public Bitmap getRawBackground() {
@@ -43,36 +127,83 @@ public class CachedBackgrounds {
         this.mRawGreyBackground = mRawGreyBackground;
     }
 
-    public Bitmap getCachedBackground() {
-        return mCachedBackground;
+    public Bitmap getRawDimmedBackground() {
+        return mRawDimmedBackground;
     }
 
-    public void setCachedBackground(Bitmap mCachedBackground) {
-        this.mCachedBackground = mCachedBackground;
+    public void setRawDimmedBackground(Bitmap rawDimmedBackground) {
+        mRawDimmedBackground = rawDimmedBackground;
     }
 
-    public Bitmap getCachedGreyBackground() {
-        return mCachedGreyBackground;
+    /**
+     * @param muteMode whether to draw the dimmed colour backgrounds, where they exist
+     */
+    public void setMuteMode(boolean muteMode) {
+        mMuteMode = muteMode;
     }
 
-    public void setCachedGreyBackground(Bitmap mCachedGreyBackground) {
-        this.mCachedGreyBackground = mCachedGreyBackground;
+    public Bitmap getCachedBackground() {
+        BakedBackgrounds current = mCurrent;
+        if (current == null) return null;
+        return mMuteMode && current.dimmed != null ? current.dimmed : current.color;
+    }
+
+    public Bitmap getCachedGreyBackground() {
+        BakedBackgrounds current = mCurrent;
+        return current == null ? null : current.greyscale;
     }
 
     public Bitmap getCachedBlackBackground() {
-        return mCachedBlackBackground;
+        BakedBackgrounds current = mCurrent;
+        return current == null ? null : current.black;
     }
 
-    public void setCachedBlackBackground(Bitmap mCachedBlackBackground) {
-        this.mCachedBlackBackground = mCachedBlackBackground;
+
+    public void setCachedBackgrounds(BakedBackgrounds baked) {
+        mCurrent = baked;
+        mRebuildCount++;
     }
 
+    /* How many times backgrounds were built on the drawing thread */
+    public long getRebuildCount() {
+        return mRebuildCount;
+    }
 
-    public void setCachedBackgrounds(Bitmap color, Bitmap greyscale, Bitmap black, int date) {
-        mCachedBackground = color;
-        mCachedGreyBackground = greyscale;
-        mCachedBlackBackground = black;
-        mDate = date;
+    /* How many times prebaked backgrounds were swapped in */
+    public long getPromotionCount() {
+        return mPromotionCount;
+    }
+
+    /**
+     * Stores backgrounds built ahead of time, to be swapped in by promotePending.
+     * Safe to call from any thread.
+     *
+     * @param pending backgrounds for a later date
+     */
+    public void setPendingBackgrounds(BakedBackgrounds pending) {
+        mPending = pending;
+    }
+
+    /**
+     * Swaps in the pending backgrounds if they were built for this date and surface size.
+     *
+     * @param date   current date
+     * @param width  surface width
+     * @param height surface height
+     * @return whether the pending backgrounds are now current
+     */
+    public boolean promotePending(int date, int width, int height) {
+        BakedBackgrounds pending = mPending;
+        if (pending == null || !pending.matches(date, width, height)) return false;
+        mCurrent = pending;
+        mPending = null;
+        mPromotionCount++;
+        return true;
+    }
+
+    /* Drops any backgrounds built ahead of time, e.g. when the surface changes */
+    public void clearPending() {
+        mPending = null;
     }
 
 
@@ -82,15 +213,16 @@ public class CachedBackgrounds {
      * @return
      */
     public Bitmap getBackground(WatchState ws) {
-        if (ws == WatchState.BLACK) return mCachedBlackBackground;
-        if (ws == WatchState.GRAY) return mCachedGreyBackground;
-        return mCachedBackground;
+        if (ws == WatchState.BLACK) return getCachedBlackBackground();
+        if (ws == WatchState.GRAY) return getCachedGreyBackground();
+        return getCachedBackground();
     }
 
     public Bitmap getRawBackground(WatchState ws) {
         if (ws == WatchState.BLACK) return null;
         if (ws == WatchState.GRAY) return mRawGreyBackground;
-        return mRawBackground;
+        Bitmap dimmed = mRawDimmedBackground;
+        return mMuteMode && dimmed != null ? dimmed : mRawBackground;
     }
 
     /**
@@ -101,7 +233,17 @@ public class CachedBackgrounds {
     public void drawBackground(Canvas canvas, WatchState ws)
     {
         Bitmap background = getBackground(ws);
-        canvas.drawBitmap(background,0,0, mBlackPaint);
+        drawBitmapOrMask(canvas, background);
+    }
+
+    /* Draws a baked background, which may be an ALPHA_8 mask */
+    private void drawBitmapOrMask(Canvas canvas, Bitmap background) {
+        if (LuminanceMask.isMask(background)) {
+            canvas.drawColor(Color.BLACK);
+            canvas.drawBitmap(background, 0, 0, mMaskPaint);
+        } else {
+            canvas.drawBitmap(background, 0, 0, mBlackPaint);
+        }
     }
 
     /***
@@ -113,7 +255,7 @@ public class CachedBackgrounds {
     {
         Bitmap background = getBackground(ws);
         if (background != null) {
-            canvas.drawBitmap(background, 0, 0, mBlackPaint);
+            drawBitmapOrMask(canvas, background);
         }
         else
         {
@@ -1,10 +1,9 @@
 package com.example.xealwatch;
 
 import android.graphics.Canvas;
+import android.graphics.Paint;
 import android.graphics.Rect;
 
-import java.util.Calendar;
-
 public class DatePainter {
     final PaintBucket mPaintBucket;
     final Vector2 mDateCenter = new Vector2();
@@ -12,6 +11,18 @@ public class DatePainter {
     final int width = 20;
     final int heightOffset = 50;
 
+    /* Day-of-month strings, indexed by date, so drawing doesn't allocate */
+    private static final String[] DAY_STRINGS = new String[32];
+
+    static {
+        for (int day = 1; day < DAY_STRINGS.length; day++) {
+            DAY_STRINGS[day] = String.valueOf(day);
+        }
+    }
+
+    private final Rect mBox = new Rect();
+    private final Rect mTextBounds = new Rect();
+
     public DatePainter(PaintBucket paintBucket) {
         mPaintBucket = paintBucket;
     }
@@ -21,15 +32,25 @@ public class DatePainter {
         mDateCenter.y = height - heightOffset;
     }
 
-    public void DrawDate(Canvas canvas, int date) {
-        BinaryPaint datePaint = mPaintBucket.getDatePaint();
-        BinaryPaint dateInsetPaint = mPaintBucket.getDateInsetPaint();
-        BinaryPaint dateTextPaint = mPaintBucket.getDateTextPaint();
-
-        Rect box = new Rect((int) mDateCenter.x - width,
+    /**
+     * Area fully covered by DrawDate.
+     *
+     * @param outBounds receives the bounds
+     */
+    public void getDateBounds(Rect outBounds) {
+        outBounds.set((int) mDateCenter.x - width,
                 (int) mDateCenter.y - height,
                 (int) mDateCenter.x + width,
                 (int) mDateCenter.y + height);
+    }
+
+    public void DrawDate(Canvas canvas, int date) {
+        Paint datePaint = mPaintBucket.getDatePaint();
+        Paint dateInsetPaint = mPaintBucket.getDateInsetPaint();
+        Paint dateTextPaint = mPaintBucket.getDateTextPaint();
+
+        Rect box = mBox;
+        getDateBounds(box);
         canvas.drawRect(box, datePaint);
         box.left += 1;
         box.top += 1;
@@ -37,9 +58,15 @@ public class DatePainter {
         box.right -= 1;
         canvas.drawRect(box, dateInsetPaint);
 
-        String dayOfMonth = String.valueOf(date);
-        Rect result = new Rect();
+        String dayOfMonth = getDayString(date);
+        Rect result = mTextBounds;
         dateTextPaint.getTextBounds(dayOfMonth, 0, dayOfMonth.length(), result);
         canvas.drawText(dayOfMonth, mDateCenter.x, mDateCenter.y + result.height() / 2f, dateTextPaint);
     }
+
+    /* Returns the cached string for a day of month */
+    private static String getDayString(int date) {
+        if (date > 0 && date < DAY_STRINGS.length) return DAY_STRINGS[date];
+        return String.valueOf(date);
+    }
 }
@@ -0,0 +1,226 @@
+package com.example.xealwatch;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+
+import java.io.PrintWriter;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Replays simulated time through the painter's real frame paths on a ReplayTimeSource, as fast
+ * as frames can be drawn, and reports the total draw and background cost of the replayed period.
+ * Each WatchState is replayed as a separate pass, and backgrounds are prebaked on a real
+ * BackgroundBaker at the times PrebakeSchedule gives the engine, so rollovers show whether the
+ * prebake was used or the frame had to rebuild. Baker time is reported separately from draw thread time.
+ * The painter is driven directly, in the order the engine calls it from onTimeTick and onDraw;
+ * the engine's own handlers and scheduler are not involved.
+ * Starts an hour before midnight of the start date, so a rollover and any DST transition
+ * early on that date are included.
+ * Runs on a DiagnosticRunner thread. Run it through dumpsys with the {@link #DUMP_ARG} argument, optionally followed by
+ * {@code zone=America/New_York}, {@code start=2021-03-14}, {@code hours=24} and {@code step=<seconds>}.
+ */
+public class DayReplay {
+    public static final String DUMP_ARG = "replay";
+
+    private static final String ZONE_ARG = "zone=";
+    private static final String START_ARG = "start=";
+    private static final String HOURS_ARG = "hours=";
+    private static final String STEP_ARG = "step=";
+    private static final String USAGE =
+            "usage: replay [zone=America/New_York] [start=yyyy-MM-dd] [hours=24] [step=<seconds>]";
+
+    private static final int DEFAULT_SIZE = 454;
+    private static final int DEFAULT_HOURS = 24;
+    private static final int DEFAULT_STEP_SECONDS = 5;
+    private static final long LEAD_IN_MILLIS = TimeAngles.MILLIS_PER_HOUR;
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    private final Resources mResources;
+    private TimeZone mTimeZone = TimeZone.getDefault();
+    private String mStartDate = null;
+    private int mHours = DEFAULT_HOURS;
+    private int mStepSeconds = DEFAULT_STEP_SECONDS;
+
+    public DayReplay(Resources resources) {
+        mResources = resources;
+    }
+
+    /**
+     * Replays the requested period and prints the results.
+     *
+     * @param pw     writer to print results to
+     * @param prefix line prefix
+     * @param args   dumpsys arguments
+     */
+    public void run(PrintWriter pw, String prefix, String[] args) {
+        if (!parseArgs(args)) {
+            pw.print(prefix);
+            pw.println(USAGE);
+            return;
+        }
+        long startMillis;
+        try {
+            startMillis = getStartMillis() - LEAD_IN_MILLIS;
+        } catch (ParseException e) {
+            pw.print(prefix);
+            pw.println("replay can't parse start date " + mStartDate + ", expected yyyy-MM-dd");
+            return;
+        }
+
+        Bitmap source = BitmapFactory.decodeResource(mResources, R.drawable.watchface_service_bg);
+        Bitmap background = Bitmap.createScaledBitmap(source, DEFAULT_SIZE, DEFAULT_SIZE, true);
+        Bitmap greyBackground = PixelPipeline.createVariants(background, true, false, Color.TRANSPARENT).greyscale;
+        Bitmap target = Bitmap.createBitmap(DEFAULT_SIZE, DEFAULT_SIZE, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(target);
+        try {
+            /*
+             * The engine stays in one state for minutes or hours at a time, so each state is
+             * replayed as its own pass. Switching state every step would miss the hands layer
+             * cache on every frame and report a day no watch ever has.
+             */
+            for (WatchState ws : WatchState.values()) {
+                replayState(pw, prefix, ws, startMillis, canvas, background, greyBackground);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pw.print(prefix);
+            pw.println("replay interrupted");
+            return;
+        }
+
+        target.recycle();
+        background.recycle();
+        greyBackground.recycle();
+    }
+
+    /* Replays the whole period in one state on a fresh painter, baker and prebake schedule */
+    private void replayState(PrintWriter pw, String prefix, WatchState ws, long startMillis, Canvas canvas,
+                             Bitmap background, Bitmap greyBackground) throws InterruptedException {
+        ReplayTimeSource timeSource = new ReplayTimeSource(startMillis, mTimeZone);
+        WatchPainter painter = new WatchPainter(new PaintBucket(Color.WHITE, Color.RED, Color.GREEN));
+        BackgroundBaker baker = new BackgroundBaker();
+        PrebakeSchedule prebakeSchedule = new PrebakeSchedule();
+        RenderTelemetry telemetry = new RenderTelemetry();
+        ChargingStatus notCharging = new ChargingStatus();
+        TimeAngles timeAngles = new TimeAngles();
+        timeAngles.setTimeZone(timeSource.getTimeZone());
+        timeAngles.update(timeSource.currentTimeMillis());
+        painter.updateSurface(canvas.getWidth(), canvas.getHeight());
+        painter.setRenderTelemetry(telemetry);
+        painter.setBackgroundBaker(baker);
+        painter.cacheBackgrounds(background, greyBackground, timeAngles.getDayOfMonth());
+        prebakeSchedule.update(timeSource.currentTimeMillis(), timeSource.getTimeZone());
+        boolean prebakePosted = false;
+
+        long endMillis = startMillis + mHours * TimeAngles.MILLIS_PER_HOUR;
+        long stepMillis = mStepSeconds * TimeAngles.MILLIS_PER_SECOND;
+        long frames = 0;
+        long prebakes = 0;
+        long drawNanos = 0;
+        int lastDate = timeAngles.getDayOfMonth();
+        long realStart = System.nanoTime();
+        try {
+            for (; timeSource.currentTimeMillis() < endMillis; timeSource.advance(stepMillis)) {
+                long now = timeSource.currentTimeMillis();
+                timeAngles.update(now);
+                int date = timeAngles.getDayOfMonth();
+                // The engine posts this with a Handler delay; here the delay runs in simulated time.
+                if (!prebakePosted && now >= prebakeSchedule.getNextPrebakeAtMs()) {
+                    painter.prebakeBackgrounds(prebakeSchedule.getNextDate(), 0);
+                    prebakePosted = true;
+                    prebakes++;
+                }
+                if (date != lastDate) {
+                    /*
+                     * On a device the prebake has PREBAKE_LEAD_MS of real time to finish before
+                     * midnight. Simulated time gets there much sooner, so wait for it here.
+                     */
+                    baker.awaitIdle();
+                    pw.print(prefix);
+                    pw.println("replay " + getStateName(ws) + " date " + lastDate + " -> " + date
+                            + " at simulated " + formatTime(now));
+                    lastDate = date;
+                }
+
+                long frameStart = System.nanoTime();
+                if (ws == WatchState.BLACK) {
+                    painter.drawLowBitFrame(canvas, timeAngles, notCharging, date);
+                } else {
+                    painter.drawFrame(canvas, timeAngles, ws, notCharging, date);
+                }
+                long frameEnd = System.nanoTime();
+                telemetry.recordFrame(ws, frameStart, frameEnd, 0);
+                drawNanos += frameEnd - frameStart;
+                frames++;
+
+                // As in the engine's onTimeTick: once the prebaked date arrives, schedule the next one.
+                if (date == prebakeSchedule.getNextDate()) {
+                    prebakeSchedule.update(now, timeSource.getTimeZone());
+                    prebakePosted = false;
+                }
+            }
+            // A prebake may still be running; let it finish before its bitmaps are recycled.
+            baker.awaitIdle();
+        } finally {
+            baker.quit();
+        }
+        long realNanos = System.nanoTime() - realStart;
+
+        LatencyHistogram backgroundPhase = telemetry.getPhaseHistogram(RenderTelemetry.Phase.BACKGROUND);
+        pw.print(prefix);
+        pw.println(String.format(Locale.US,
+                "replay %s zone=%s from=%s hours=%d step=%ds frames=%d realMs=%.1f speedup=%.0fx"
+                        + " drawMs=%.1f backgroundMs=%.1f prebakes=%d bakerMs=%.1f offsetRefreshes=%d",
+                getStateName(ws), mTimeZone.getID(), formatTime(startMillis), mHours, mStepSeconds, frames,
+                realNanos / NANOS_PER_MILLI, mHours * TimeAngles.MILLIS_PER_HOUR / (realNanos / NANOS_PER_MILLI),
+                drawNanos / NANOS_PER_MILLI,
+                backgroundPhase.getCount() * backgroundPhase.getMeanMicros() / 1000.0,
+                prebakes, baker.getBusyNanos() / NANOS_PER_MILLI,
+                timeAngles.getRefreshCount()));
+        painter.dumpCacheStats(pw, prefix);
+        telemetry.dump(pw, prefix);
+    }
+
+    private static String getStateName(WatchState ws) {
+        return ws.name().toLowerCase(Locale.US);
+    }
+
+    private boolean parseArgs(String[] args) {
+        try {
+            for (String arg : args) {
+                if (arg.startsWith(ZONE_ARG)) {
+                    mTimeZone = TimeZone.getTimeZone(arg.substring(ZONE_ARG.length()));
+                } else if (arg.startsWith(START_ARG)) {
+                    mStartDate = arg.substring(START_ARG.length());
+                } else if (arg.startsWith(HOURS_ARG)) {
+                    mHours = Math.max(1, Integer.parseInt(arg.substring(HOURS_ARG.length())));
+                } else if (arg.startsWith(STEP_ARG)) {
+                    mStepSeconds = Math.max(1, Integer.parseInt(arg.substring(STEP_ARG.length())));
+                }
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /* Local midnight at the start of the start date, or of today if none was given */
+    private long getStartMillis() throws ParseException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+        format.setTimeZone(mTimeZone);
+        String date = mStartDate != null ? mStartDate : format.format(System.currentTimeMillis());
+        return format.parse(date).getTime();
+    }
+
+    private String formatTime(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss z", Locale.US);
+        format.setTimeZone(mTimeZone);
+        return format.format(millis);
+    }
+}
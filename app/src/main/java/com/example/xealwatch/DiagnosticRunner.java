@@ -0,0 +1,82 @@
+package com.example.xealwatch;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs slow diagnostics, such as the day replay, on their own thread.
+ * dump() is called on the main thread and dumpsys gives up on it after a few seconds,
+ * so running them inline would freeze the face and cut off the results.
+ * The first dumpsys starts a run; a later one prints the results once it has finished.
+ * Only one diagnostic runs at a time, so they don't skew each other's timings.
+ */
+public class DiagnosticRunner {
+    private static final String TAG = "DiagnosticRunner";
+
+    public interface Diagnostic {
+        /**
+         * Runs the diagnostic on the runner's thread.
+         *
+         * @param pw     writer to print results to
+         * @param prefix line prefix
+         */
+        void run(PrintWriter pw, String prefix);
+    }
+
+    private final Object mLock = new Object();
+    private String mRunningName = null;
+    private long mRunningSinceMs = 0;
+    /* Output of finished runs that hasn't been printed yet, by diagnostic name */
+    private final Map<String, String> mResults = new HashMap<>();
+
+    /**
+     * Prints the results of the last finished run of a diagnostic, or starts a new run.
+     *
+     * @param pw         writer to print to
+     * @param prefix     line prefix
+     * @param name       name of the diagnostic
+     * @param diagnostic the diagnostic to start if there are no results to print
+     */
+    public void dump(PrintWriter pw, String prefix, String name, Diagnostic diagnostic) {
+        synchronized (mLock) {
+            String result = mResults.remove(name);
+            if (result != null) {
+                pw.print(result);
+                return;
+            }
+            if (mRunningName != null) {
+                pw.print(prefix);
+                pw.println(mRunningName + " is still running, started "
+                        + (SystemClock.elapsedRealtime() - mRunningSinceMs) / 1000 + "s ago");
+                return;
+            }
+            mRunningName = name;
+            mRunningSinceMs = SystemClock.elapsedRealtime();
+        }
+        new Thread(() -> runDiagnostic(prefix, name, diagnostic), "xealwatch-" + name).start();
+        pw.print(prefix);
+        pw.println(name + " started; run dumpsys again to collect the results");
+    }
+
+    private void runDiagnostic(String prefix, String name, Diagnostic diagnostic) {
+        StringWriter output = new StringWriter();
+        PrintWriter pw = new PrintWriter(output);
+        try {
+            diagnostic.run(pw, prefix);
+        } catch (RuntimeException e) {
+            Log.w(TAG, name + " failed", e);
+            pw.print(prefix);
+            pw.println(name + " failed: " + e);
+        }
+        pw.flush();
+        synchronized (mLock) {
+            mResults.put(name, output.toString());
+            mRunningName = null;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.xealwatch;
+
+import android.graphics.Rect;
+
+/**
+ * Tracks what fraction of the surface's pixels each frame touches.
+ */
+public class FillRateStats {
+    /* Weight of the newest frame in the running average */
+    private static final float SMOOTHING = 0.05f;
+
+    private float mLastFraction = 1f;
+    private float mAverageFraction = 1f;
+    private long mFrames = 0;
+
+    /**
+     * Records a frame that repainted the given region.
+     *
+     * @param region       region that was repainted
+     * @param surfaceArea  total pixels on the surface
+     */
+    public void recordFrame(Rect region, int surfaceArea) {
+        recordFrame(region.width() * region.height(), surfaceArea);
+    }
+
+    /**
+     * Records a frame that repainted the given number of pixels.
+     *
+     * @param touchedPixels pixels repainted this frame
+     * @param surfaceArea   total pixels on the surface
+     */
+    public void recordFrame(int touchedPixels, int surfaceArea) {
+        if (surfaceArea <= 0) return;
+        mLastFraction = Math.min(1f, touchedPixels / (float) surfaceArea);
+        mAverageFraction = mFrames == 0 ? mLastFraction
+                : mAverageFraction + (mLastFraction - mAverageFraction) * SMOOTHING;
+        mFrames++;
+    }
+
+    /* Fraction of pixels touched by the most recent frame */
+    public float getLastFraction() {
+        return mLastFraction;
+    }
+
+    /* Exponentially smoothed fraction of pixels touched per frame */
+    public float getAverageFraction() {
+        return mAverageFraction;
+    }
+
+    public long getFrames() {
+        return mFrames;
+    }
+}
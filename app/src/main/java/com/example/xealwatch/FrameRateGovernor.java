@@ -0,0 +1,139 @@
+package com.example.xealwatch;
+
+/**
+ * Picks how long to wait before the next interactive frame.
+ * The rate is derived from how fast the tip of the second hand moves across the screen,
+ * so we don't wake up to draw frames where the hand hasn't moved a visible pixel.
+ * It is reduced further when the battery is low and we aren't charging.
+ */
+public class FrameRateGovernor {
+
+    public enum Mode {
+        SMOOTH, // sweep, one frame per pixel of second-hand movement
+        ECO,    // sweep at half the rate of SMOOTH
+        TICK    // one frame per second
+    }
+
+    static final long MIN_FRAME_INTERVAL_MS = 16; // ~60FPS
+    static final long DEFAULT_FRAME_INTERVAL_MS = 33; // ~30FPS, used until the surface is known
+    static final long TICK_INTERVAL_MS = 1000;
+    static final float ECO_PIXELS_PER_FRAME = 2f;
+    static final float LOW_BATTERY_PERCENT = 20f;
+
+    private static final long MILLIS_PER_MINUTE = 60 * 1000;
+    private static final double MILLIS_PER_REVOLUTION = MILLIS_PER_MINUTE;
+
+    private Mode mMode = Mode.SMOOTH;
+    private float mSecondHandLength = 0;
+
+    private long mWindowStartMs = -1;
+    private int mWakeupsInWindow = 0;
+    private float mWakeupsPerMinute = 0;
+
+    public Mode getMode() {
+        return mMode;
+    }
+
+    public void setMode(Mode mode) {
+        mMode = mode;
+    }
+
+    /**
+     * Call this when the surface changes.
+     *
+     * @param secondHandLength length of the second hand in pixels
+     */
+    public void setSecondHandLength(float secondHandLength) {
+        mSecondHandLength = secondHandLength;
+    }
+
+    /**
+     * Returns the mode actually in use, stepping down one level when the battery is low.
+     *
+     * @param chargingStatus current charging status
+     * @return effective mode
+     */
+    public Mode getEffectiveMode(ChargingStatus chargingStatus) {
+        boolean lowBattery = !chargingStatus.isCharging
+                && chargingStatus.percent > 0
+                && chargingStatus.percent < LOW_BATTERY_PERCENT;
+        if (!lowBattery) return mMode;
+        if (mMode == Mode.SMOOTH) return Mode.ECO;
+        return Mode.TICK;
+    }
+
+    /**
+     * @param chargingStatus current charging status
+     * @return how many milliseconds apart interactive frames should be
+     */
+    public long getFrameIntervalMs(ChargingStatus chargingStatus) {
+        switch (getEffectiveMode(chargingStatus)) {
+            case SMOOTH:
+                return clampInterval(getMillisPerPixel());
+            case ECO:
+                return clampInterval(getMillisPerPixel() * ECO_PIXELS_PER_FRAME);
+            default:
+                return TICK_INTERVAL_MS;
+        }
+    }
+
+    /**
+     * Records a wakeup and returns the delay until the next one,
+     * aligned to a multiple of the frame interval.
+     *
+     * @param nowMs          current time in milliseconds
+     * @param chargingStatus current charging status
+     * @return delay in milliseconds
+     */
+    public long getNextDelayMs(long nowMs, ChargingStatus chargingStatus) {
+        recordWakeup(nowMs);
+        long intervalMs = getFrameIntervalMs(chargingStatus);
+        return intervalMs - (nowMs % intervalMs);
+    }
+
+    /* Time in milliseconds for the tip of the second hand to move one pixel */
+    private float getMillisPerPixel() {
+        if (mSecondHandLength <= 0) return DEFAULT_FRAME_INTERVAL_MS;
+        double circumference = 2 * Math.PI * mSecondHandLength;
+        return (float) (MILLIS_PER_REVOLUTION / circumference);
+    }
+
+    private static long clampInterval(float intervalMs) {
+        return Math.max(MIN_FRAME_INTERVAL_MS, Math.min(TICK_INTERVAL_MS, (long) intervalMs));
+    }
+
+    /**
+     * Records a wakeup for the wakeups-per-minute measurement.
+     * getNextDelayMs() does this itself; call it directly when frames are scheduled elsewhere.
+     *
+     * @param nowMs current time in milliseconds
+     */
+    public void recordWakeup(long nowMs) {
+        if (mWindowStartMs < 0 || nowMs < mWindowStartMs) {
+            mWindowStartMs = nowMs;
+            mWakeupsInWindow = 0;
+        }
+        mWakeupsInWindow++;
+        long elapsed = nowMs - mWindowStartMs;
+        if (elapsed >= MILLIS_PER_MINUTE) {
+            mWakeupsPerMinute = mWakeupsInWindow * (float) MILLIS_PER_MINUTE / elapsed;
+            mWindowStartMs = nowMs;
+            mWakeupsInWindow = 0;
+        }
+    }
+
+    /**
+     * @return wakeups per minute measured over the last complete minute
+     */
+    public float getWakeupsPerMinute() {
+        return mWakeupsPerMinute;
+    }
+
+    /**
+     * Resets the measurement window, e.g. when the timer stops in ambient.
+     */
+    public void resetWindow() {
+        mWindowStartMs = -1;
+        mWakeupsInWindow = 0;
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.xealwatch;
+
+import java.io.PrintWriter;
+
+/**
+ * Fixed-bucket latency histogram. Recording does not allocate, so it is safe to use every frame.
+ */
+public class LatencyHistogram {
+    /* Upper bound of each bucket in microseconds; the last bucket has no upper bound */
+    private static final long[] BUCKET_LIMITS_US = {250, 500, 1000, 2000, 4000, 8000, 16000, 33000, 66000};
+    private static final long NANOS_PER_MICRO = 1000;
+
+    private final long[] mCounts = new long[BUCKET_LIMITS_US.length + 1];
+    private long mCount = 0;
+    private long mTotalNanos = 0;
+    private long mMaxNanos = 0;
+
+    /**
+     * Records one sample.
+     *
+     * @param nanos duration in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = nanos / NANOS_PER_MICRO;
+        int bucket = 0;
+        while (bucket < BUCKET_LIMITS_US.length && micros >= BUCKET_LIMITS_US[bucket]) {
+            bucket++;
+        }
+        mCounts[bucket]++;
+        mCount++;
+        mTotalNanos += nanos;
+        if (nanos > mMaxNanos) mMaxNanos = nanos;
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public long getMeanMicros() {
+        return mCount == 0 ? 0 : mTotalNanos / mCount / NANOS_PER_MICRO;
+    }
+
+    public long getMaxMicros() {
+        return mMaxNanos / NANOS_PER_MICRO;
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     * @return upper bound of the bucket holding the percentile, or the max for the last bucket
+     */
+    public long getPercentileMicros(float percentile) {
+        if (mCount == 0) return 0;
+        long target = (long) Math.ceil(mCount * percentile / 100f);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_LIMITS_US.length; bucket++) {
+            seen += mCounts[bucket];
+            if (seen >= target) return BUCKET_LIMITS_US[bucket];
+        }
+        return getMaxMicros();
+    }
+
+    public void reset() {
+        for (int bucket = 0; bucket < mCounts.length; bucket++) {
+            mCounts[bucket] = 0;
+        }
+        mCount = 0;
+        mTotalNanos = 0;
+        mMaxNanos = 0;
+    }
+
+    /* One-line summary, e.g. for logging */
+    public String summary() {
+        return "n=" + mCount
+                + " mean=" + getMeanMicros() + "us"
+                + " p50<=" + getPercentileMicros(50) + "us"
+                + " p90<=" + getPercentileMicros(90) + "us"
+                + " p99<=" + getPercentileMicros(99) + "us"
+                + " max=" + getMaxMicros() + "us";
+    }
+
+    /**
+     * Prints the summary and every bucket.
+     *
+     * @param pw     writer to print to
+     * @param prefix line prefix
+     * @param name   name of the histogram
+     */
+    public void dump(PrintWriter pw, String prefix, String name) {
+        pw.print(prefix);
+        pw.println(name + ": " + summary());
+        StringBuilder buckets = new StringBuilder();
+        for (int bucket = 0; bucket < mCounts.length; bucket++) {
+            buckets.append(bucket < BUCKET_LIMITS_US.length ? "<" + BUCKET_LIMITS_US[bucket] : ">=" + BUCKET_LIMITS_US[bucket - 1])
+                    .append("us=").append(mCounts[bucket]).append(' ');
+        }
+        pw.print(prefix);
+        pw.println("  " + buckets.toString().trim());
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.xealwatch;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+/**
+ * An offscreen, full-screen layer that is only re-rasterized when its key changes.
+ * The key encodes everything the layer's contents depend on (time bucket, state, etc.),
+ * so callers decide the invalidation rate simply by choosing how the key is built.
+ */
+public class LayerCache {
+    private static final long INVALID_KEY = Long.MIN_VALUE;
+
+    private Bitmap mBitmap = null;
+    private final Canvas mCanvas = new Canvas();
+    private int mWidth = 0;
+    private int mHeight = 0;
+    private long mKey = INVALID_KEY;
+    private long mRedrawCount = 0;
+    private final Paint mBlitPaint = new Paint();
+
+    /**
+     * Call this when the screen resolution changes.
+     * The bitmap itself is allocated the first time the layer is drawn.
+     *
+     * @param width  width of screen
+     * @param height height of screen
+     */
+    public void resize(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        if (mBitmap != null && (mBitmap.getWidth() != width || mBitmap.getHeight() != height)) {
+            release();
+        }
+        invalidate();
+    }
+
+    /**
+     * Frees the layer's bitmap; it is reallocated if the layer is drawn again.
+     */
+    public void release() {
+        if (mBitmap == null) return;
+        mCanvas.setBitmap(null);
+        mBitmap = null;
+        invalidate();
+    }
+
+    /* Bytes held by the layer's bitmap */
+    public int getByteCount() {
+        return mBitmap == null ? 0 : mBitmap.getAllocationByteCount();
+    }
+
+    /* How many times the layer has been re-rasterized */
+    public long getRedrawCount() {
+        return mRedrawCount;
+    }
+
+    /**
+     * Forces the layer to be redrawn on next use.
+     */
+    public void invalidate() {
+        mKey = INVALID_KEY;
+    }
+
+    /**
+     * @param key the key describing the layer's desired contents
+     * @return whether the layer needs to be re-rasterized
+     */
+    public boolean requiresRedraw(long key) {
+        return mKey != key;
+    }
+
+    /**
+     * Marks the layer as holding the contents for key, and returns the canvas to paint it with.
+     *
+     * @param key the key describing the contents about to be drawn
+     * @return canvas backed by the layer's bitmap
+     */
+    public Canvas beginDraw(long key) {
+        if (mBitmap == null) {
+            mBitmap = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+            mCanvas.setBitmap(mBitmap);
+        }
+        mKey = key;
+        mRedrawCount++;
+        return mCanvas;
+    }
+
+    /**
+     * Blit the layer onto a canvas.
+     *
+     * @param canvas canvas to draw on
+     */
+    public void draw(Canvas canvas) {
+        canvas.drawBitmap(mBitmap, 0, 0, mBlitPaint);
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.xealwatch;
+
+import android.graphics.Bitmap;
+
+/**
+ * Converts greyscale images into single-channel ALPHA_8 masks.
+ * Drawing such a mask in white over black reproduces the original grey levels,
+ * at a quarter of the memory of an ARGB_8888 bitmap.
+ */
+public class LuminanceMask {
+    /*
+     * Rec. 709 luma weights out of 256, the same ones ColorMatrix.setSaturation(0) uses.
+     * Shared with PixelPipeline, so a mask and a greyscale bitmap of the same image match.
+     */
+    static final int LUMA_RED = 54;
+    static final int LUMA_GREEN = 184;
+    static final int LUMA_BLUE = 18;
+
+    private LuminanceMask() {
+    }
+
+    /**
+     * @param pixel ARGB color
+     * @return luma of the color, from 0 to 255
+     */
+    static int luma(int pixel) {
+        return (((pixel >> 16) & 0xff) * LUMA_RED
+                + ((pixel >> 8) & 0xff) * LUMA_GREEN
+                + (pixel & 0xff) * LUMA_BLUE) >> 8;
+    }
+
+    /**
+     * Creates a mask whose alpha is the luminance of the source image.
+     *
+     * @param source opaque image to convert
+     * @return ALPHA_8 bitmap of the same size
+     */
+    public static Bitmap fromBitmap(Bitmap source) {
+        Bitmap mask = Bitmap.createBitmap(source.getWidth(), source.getHeight(), Bitmap.Config.ALPHA_8);
+        writeLuminance(source, mask, 0, 0);
+        return mask;
+    }
+
+    /**
+     * Writes the luminance of source into mask's alpha, with source's top-left at (left, top).
+     * Works a row at a time so only one row of pixels is held in memory.
+     *
+     * @param source opaque image to read
+     * @param mask   mutable ALPHA_8 bitmap to write
+     * @param left   x position in the mask
+     * @param top    y position in the mask
+     */
+    public static void writeLuminance(Bitmap source, Bitmap mask, int left, int top) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            source.getPixels(row, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x++) {
+                row[x] = luma(row[x]) << 24;
+            }
+            mask.setPixels(row, 0, width, left, top + y, width, 1);
+        }
+    }
+
+    /**
+     * @param bitmap bitmap to check
+     * @return whether the bitmap is a mask that must be drawn with a paint over black
+     */
+    public static boolean isMask(Bitmap bitmap) {
+        return bitmap.getConfig() == Bitmap.Config.ALPHA_8;
+    }
+}
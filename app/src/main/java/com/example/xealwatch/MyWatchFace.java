@@ -4,28 +4,28 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.ColorMatrix;
-import android.graphics.ColorMatrixColorFilter;
-import android.graphics.Paint;
 import android.graphics.Rect;
+import android.hardware.display.DisplayManager;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
-
-import androidx.palette.graphics.Palette;
+import android.util.Log;
 
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
+import android.view.Display;
 import android.view.SurfaceHolder;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
-import java.util.Calendar;
-import java.util.TimeZone;
 
 /**
  * Analog watch face with a ticking second hand. In ambient mode, the second hand isn"t
@@ -41,21 +41,47 @@ import java.util.TimeZone;
  */
 public class MyWatchFace extends CanvasWatchFaceService {
 
+    private static final String TAG = "MyWatchFace";
+
+    /**
+     * How often render telemetry is written to the log.
+     */
+    private static final int TELEMETRY_LOG_INTERVAL_MINUTES = 15;
+
+    /**
+     * Hand colors used unless picked from the background image.
+     */
+    private static final int DEFAULT_HAND_COLOR = Color.WHITE;
+    private static final int DEFAULT_HAND_SECOND_COLOR = Color.RED;
+
     /**
-     * Updates rate in milliseconds for interactive mode. We update at 60FPS
+     * Directory under the app's cache directory where baked backgrounds are kept.
      */
-    private static final long INTERACTIVE_UPDATE_RATE_MS = 33;
+    private static final String BACKGROUND_CACHE_DIR = "backgrounds";
 
     /**
      * Handler message id for updating the time periodically in interactive mode.
      */
     private static final int MSG_UPDATE_TIME = 0;
 
+    /* How long battery broadcasts are coalesced for in ambient mode */
+    private static final long AMBIENT_BATTERY_DEBOUNCE_MS = 5000;
+
     @Override
     public Engine onCreateEngine() {
         return new Engine();
     }
 
+    /**
+     * The clock engines read the time and time zone from.
+     * Override to run the face on simulated time.
+     *
+     * @return the system clock
+     */
+    protected TimeSource createTimeSource() {
+        return TimeSource.SYSTEM;
+    }
+
     private static class EngineHandler extends Handler {
         private final WeakReference<MyWatchFace.Engine> mWeakReference;
 
@@ -79,102 +105,236 @@ public class MyWatchFace extends CanvasWatchFaceService {
     private class Engine extends CanvasWatchFaceService.Engine {
 
 
-        /* Handler to update the time once a second in interactive mode. */
+        /* Handler to update the time in interactive mode, at the rate picked by mFrameRateGovernor. */
         private final Handler mUpdateTimeHandler = new EngineHandler(this);
-        private Calendar mCalendar;
+        /* Hand angles and date for the current frame, computed without Calendar */
+        private final TimeAngles mTimeAngles = new TimeAngles();
+        /* Every read of the time and time zone goes through here */
+        private TimeSource mTimeSource = TimeSource.SYSTEM;
         private final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                mCalendar.setTimeZone(TimeZone.getDefault());
+                mTimeAngles.setTimeZone(mTimeSource.getTimeZone());
+                scheduleBackgroundPrebake();
                 invalidate();
             }
         };
 
         private final ChargingStatus mChargingStatus = new ChargingStatus();
+        /*
+         * ACTION_BATTERY_CHANGED also fires for temperature and voltage changes, so broadcasts
+         * only redraw when the charging state shown on the face changes. In ambient they are
+         * coalesced and only the latest is applied, after AMBIENT_BATTERY_DEBOUNCE_MS.
+         */
         private final BroadcastReceiver mChargingReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                mChargingStatus.SetBatteryStatusIntent(intent);
-                mChargingStatus.Update();
-                invalidate();
+                mBatteryBroadcasts++;
+                mPendingBatteryIntent = intent;
+                if (!mAmbient) {
+                    applyBatteryStatus();
+                } else if (!mBatteryUpdatePosted) {
+                    mBatteryUpdatePosted = true;
+                    mUpdateTimeHandler.postDelayed(mApplyBatteryStatus, AMBIENT_BATTERY_DEBOUNCE_MS);
+                }
             }
         };
+        private final Runnable mApplyBatteryStatus = this::applyBatteryStatus;
+        private Intent mPendingBatteryIntent = null;
+        private boolean mBatteryUpdatePosted = false;
+        private long mBatteryBroadcasts = 0;
+        private long mBatteryRedraws = 0;
 
         private boolean mRegisteredTimeZoneReceiver = false;
         private boolean mMuteMode;
 
         /* Colors for all hands (hour, minute, seconds, ticks) based on photo loaded. */
-        private int mWatchHandColor = Color.WHITE;
-        private int mWatchHandSecondColor = Color.RED;
+        private int mWatchHandColor = DEFAULT_HAND_COLOR;
+        private int mWatchHandSecondColor = DEFAULT_HAND_SECOND_COLOR;
         private final int mWatchTickColor = Color.GREEN; // green while charging.
 
         private PaintBucket mPaintBucket;
         private WatchPainter mWatchPainter;
+        private BackgroundBaker mBackgroundBaker;
+        private final PrebakeSchedule mPrebakeSchedule = new PrebakeSchedule();
 
-        private Bitmap mBackgroundBitmap;
-        private Bitmap mGrayBackgroundBitmap;
         private boolean mAmbient;
         private boolean mLowBitAmbient;
         private boolean mBurnInProtection;
         private WatchState mCurrentWatchState = WatchState.BLACK;
 
+        private WatchSettings mWatchSettings;
+        /* Held here, since shared preferences only keep a weak reference to listeners */
+        private final SharedPreferences.OnSharedPreferenceChangeListener mSettingsListener =
+                (preferences, key) -> onSettingsChanged(key);
+        private PaletteCache mPaletteCache;
+        /* Only repaint the area swept by the second hand between interactive frames */
+        private boolean mDirtyRegionMode = false;
+        /* Keep background caches small, dropping raw images once baked */
+        private boolean mMemoryBudgetMode = false;
+        private final Rect mDirtyRegion = new Rect();
+        private final FillRateStats mFillRateStats = new FillRateStats();
+        /* Decides the interactive update rate */
+        private final FrameRateGovernor mFrameRateGovernor = new FrameRateGovernor();
+        private final RenderTelemetry mRenderTelemetry = new RenderTelemetry();
+        private final DiagnosticRunner mDiagnosticRunner = new DiagnosticRunner();
+        /* Used instead of mUpdateTimeHandler when mVsyncPacing is set */
+        private final VsyncFrameScheduler mVsyncScheduler = new VsyncFrameScheduler(
+                mFrameRateGovernor, mChargingStatus, frameTimeNanos -> drawPeriodicFrame());
+        private boolean mVsyncPacing = false;
+        private int mMinutesSinceTelemetryLog = 0;
+        private int mSurfaceWidth;
+        private int mSurfaceHeight;
+        private final StartupTimings mStartupTimings = new StartupTimings();
+        /* Identifies the latest background load, so results from superseded loads are dropped */
+        private int mBackgroundLoadGeneration = 0;
+
 
         @Override
         public void onCreate(SurfaceHolder holder) {
             super.onCreate(holder);
+            mStartupTimings.mark(StartupTimings.Stage.ENGINE_CREATED);
 
             setWatchFaceStyle(new WatchFaceStyle.Builder(MyWatchFace.this)
                     .setAcceptsTapEvents(true)
                     .build());
 
-            mCalendar = Calendar.getInstance();
+            mTimeSource = createTimeSource();
+            mTimeAngles.setTimeZone(mTimeSource.getTimeZone());
+            mTimeAngles.update(mTimeSource.currentTimeMillis());
+            mWatchSettings = new WatchSettings(MyWatchFace.this);
+            mPaletteCache = new PaletteCache(MyWatchFace.this);
+            applyFrameSettings();
+            mMemoryBudgetMode = mWatchSettings.isMemoryBudgetMode();
+            mWatchSettings.registerListener(mSettingsListener);
 
-            initializeBackground();
             initializeWatchFace();
 
         }
 
-        private void initializeBackground() {
-            BinaryPaint mBackgroundPaint = new BinaryPaint();
-            mBackgroundPaint.setColor(Color.BLACK);
-            mBackgroundBitmap = BitmapFactory.decodeResource(getResources(), R.drawable.watchface_service_bg);
-        }
-
         /**
-         * Call this to automatically set our hand colors based on bg image.
+         * Picks hand colors from the background image on the BackgroundBaker thread.
+         * Extraction runs once per image, on a downsampled copy; after that the colors come
+         * from mPaletteCache. Only the hands change, so baked backgrounds are kept.
+         *
+         * @param photoUri      the user's background photo, or null
+         * @param imageHash     identifies the background image
+         * @param cropToSurface whether the background is cropped to the surface
          */
-        private void setAutoHandColor() {
-            /* Extracts colors from background image to improve watchface style. */
-            Palette.from(mBackgroundBitmap).generate(palette -> {
-                if (palette != null) {
-                    mWatchHandSecondColor = palette.getVibrantColor(Color.RED);
-                    mWatchHandColor = palette.getLightVibrantColor(Color.WHITE);
+        private void loadAutoHandColorsAsync(final Uri photoUri, final long imageHash,
+                                             final boolean cropToSurface) {
+            mBackgroundBaker.schedule(() -> {
+                PaletteCache.HandColors colors = mPaletteCache.get(imageHash);
+                if (colors == null) {
+                    /* Extracts colors from background image to improve watchface style. */
+                    Bitmap sample = decodeBackground(photoUri,
+                            PaletteCache.EXTRACTION_SIZE, PaletteCache.EXTRACTION_SIZE, cropToSurface);
+                    if (sample == null) return;
+                    colors = PaletteCache.extract(sample, DEFAULT_HAND_COLOR, DEFAULT_HAND_SECOND_COLOR);
+                    sample.recycle();
+                    mPaletteCache.put(imageHash, colors);
                 }
-            });
+                final PaletteCache.HandColors handColors = colors;
+                mUpdateTimeHandler.post(() -> {
+                    // The user may have turned automatic hand colors off in the meantime.
+                    if (mWatchSettings.isAutoHandColor()) setHandColors(handColors.hand, handColors.second);
+                });
+            }, 0);
+        }
+
+        /* Recolors the hands without touching cached backgrounds */
+        private void setHandColors(int watchHandColor, int watchHandSecondColor) {
+            if (watchHandColor == mWatchHandColor && watchHandSecondColor == mWatchHandSecondColor) return;
+            mWatchHandColor = watchHandColor;
+            mWatchHandSecondColor = watchHandSecondColor;
+            mPaintBucket.setHandColors(mWatchHandColor, mWatchHandSecondColor);
+            mWatchPainter.invalidateLayers();
+            invalidate();
         }
 
         private void initializeWatchFace() {
             mPaintBucket = new PaintBucket(mWatchHandColor, mWatchHandSecondColor, mWatchTickColor);
             mWatchPainter = new WatchPainter(mPaintBucket);
+            mBackgroundBaker = new BackgroundBaker();
+            mWatchPainter.setBackgroundBaker(mBackgroundBaker);
+            mWatchPainter.setMemoryBudgetMode(mMemoryBudgetMode);
+            mWatchPainter.setRenderTelemetry(mRenderTelemetry);
+            mWatchPainter.setDiskCache(new BackgroundDiskCache(new File(getCacheDir(), BACKGROUND_CACHE_DIR)));
         }
 
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mVsyncScheduler.stop();
+            mUpdateTimeHandler.removeCallbacks(mApplyBatteryStatus);
+            mWatchSettings.unregisterListener(mSettingsListener);
+            /* Drop the results of any background load still running. */
+            mBackgroundLoadGeneration++;
+            mWatchPainter.setBackgroundBaker(null);
+            mBackgroundBaker.quit();
             super.onDestroy();
         }
 
+        /* Applies a change made in WatchFaceConfigActivity */
+        private void onSettingsChanged(String key) {
+            applyFrameSettings();
+            /* Backgrounds are baked differently in memory budget mode, so they are rebuilt. */
+            boolean memoryBudgetMode = mWatchSettings.isMemoryBudgetMode();
+            boolean reloadBackgrounds = WatchSettings.isBackgroundKey(key) || memoryBudgetMode != mMemoryBudgetMode;
+            mMemoryBudgetMode = memoryBudgetMode;
+            mWatchPainter.setMemoryBudgetMode(mMemoryBudgetMode);
+            if (!mWatchSettings.isAutoHandColor()) {
+                setHandColors(DEFAULT_HAND_COLOR, DEFAULT_HAND_SECOND_COLOR);
+            }
+            if (reloadBackgrounds && mSurfaceWidth > 0) {
+                mTimeAngles.update(mTimeSource.currentTimeMillis());
+                loadBackgroundsAsync(mSurfaceWidth, mSurfaceHeight, mTimeAngles.getDayOfMonth());
+            }
+        }
+
+        /* Reads how interactive frames are drawn and paced, restarting the timer if pacing changed */
+        private void applyFrameSettings() {
+            mDirtyRegionMode = mWatchSettings.isDirtyRegionMode();
+            FrameRateGovernor.Mode frameRateMode = mWatchSettings.getFrameRateMode();
+            boolean vsyncPacing = mWatchSettings.isVsyncPacing();
+            boolean pacingChanged = frameRateMode != mFrameRateGovernor.getMode() || vsyncPacing != mVsyncPacing;
+            mFrameRateGovernor.setMode(frameRateMode);
+            mVsyncPacing = vsyncPacing;
+            if (pacingChanged) updateTimer();
+        }
+
         @Override
         public void onPropertiesChanged(Bundle properties) {
             super.onPropertiesChanged(properties);
-            mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
-            mBurnInProtection = properties.getBoolean(PROPERTY_BURN_IN_PROTECTION, false);
+            boolean lowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
+            boolean burnInProtection = properties.getBoolean(PROPERTY_BURN_IN_PROTECTION, false);
+            boolean greyChanged = lowBitAmbient != mLowBitAmbient;
+            mLowBitAmbient = lowBitAmbient;
+            mBurnInProtection = burnInProtection;
+            mWatchPainter.setBurnInProtection(mBurnInProtection);
             refreshWatchState();
+            /* Backgrounds already loaded were built for the other ambient style. */
+            if (greyChanged && mSurfaceWidth > 0) {
+                mTimeAngles.update(mTimeSource.currentTimeMillis());
+                loadBackgroundsAsync(mSurfaceWidth, mSurfaceHeight, mTimeAngles.getDayOfMonth());
+            }
         }
 
         @Override
         public void onTimeTick() {
             super.onTimeTick();
+            /*
+             * Once we reach the day we prebaked for, schedule the next one. The angles are only
+             * refreshed in onDraw, so refresh them first or the new date is seen a tick late.
+             */
+            mTimeAngles.update(mTimeSource.currentTimeMillis());
+            if (mTimeAngles.getDayOfMonth() == mPrebakeSchedule.getNextDate()) {
+                scheduleBackgroundPrebake();
+            }
+            if (++mMinutesSinceTelemetryLog >= TELEMETRY_LOG_INTERVAL_MINUTES) {
+                mMinutesSinceTelemetryLog = 0;
+                Log.i(TAG, mRenderTelemetry.summary());
+            }
             invalidate();
         }
 
@@ -182,8 +342,12 @@ public class MyWatchFace extends CanvasWatchFaceService {
         public void onAmbientModeChanged(boolean inAmbientMode) {
             super.onAmbientModeChanged(inAmbientMode);
             mAmbient = inAmbientMode;
+            if (!mAmbient) {
+                /* Show any battery change held back while in ambient straight away. */
+                applyBatteryStatus();
+            }
             refreshWatchState();
-            mPaintBucket.updateWatchHandStyles(mAmbient);
+            mWatchPainter.invalidateLayers();
 
             /* Check and trigger whether or not timer should be running (only in active mode). */
             updateTimer();
@@ -199,6 +363,8 @@ public class MyWatchFace extends CanvasWatchFaceService {
             if (mMuteMode != inMuteMode) {
                 mMuteMode = inMuteMode;
                 mPaintBucket.setMuteMode(mMuteMode);
+                mWatchPainter.setMuteMode(mMuteMode);
+                mWatchPainter.invalidateLayers();
                 invalidate();
             }
         }
@@ -206,40 +372,149 @@ public class MyWatchFace extends CanvasWatchFaceService {
         @Override
         public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
             super.onSurfaceChanged(holder, format, width, height);
+            mSurfaceWidth = width;
+            mSurfaceHeight = height;
             this.mWatchPainter.updateSurface(width, height);
+            mFrameRateGovernor.setSecondHandLength(mWatchPainter.getSecondHandLength());
+            Display display = getSystemService(DisplayManager.class).getDisplay(Display.DEFAULT_DISPLAY);
+            if (display != null) mVsyncScheduler.setRefreshRate(display.getRefreshRate());
 
-            /* Scale loaded background image (more efficient) if surface dimensions change. */
-            float scale = ((float) width) / (float) mBackgroundBitmap.getWidth();
-
-            mBackgroundBitmap = Bitmap.createScaledBitmap(mBackgroundBitmap,
-                    (int) (mBackgroundBitmap.getWidth() * scale),
-                    (int) (mBackgroundBitmap.getHeight() * scale), true);
+            mTimeAngles.update(mTimeSource.currentTimeMillis());
+            loadBackgroundsAsync(width, height, mTimeAngles.getDayOfMonth());
+            mStartupTimings.mark(StartupTimings.Stage.SURFACE_READY);
+        }
 
+        /**
+         * Decodes the background at surface size, builds its grey version and bakes the cached
+         * backgrounds on the BackgroundBaker thread, swapping each stage in as it completes.
+         * Until then frames show the hands on black, then on the raw image, so none of this
+         * delays the first frame.
+         *
+         * @param width  surface width
+         * @param height surface height
+         * @param date   current date
+         */
+        private void loadBackgroundsAsync(final int width, final int height, final int date) {
+            final int generation = ++mBackgroundLoadGeneration;
+            final boolean cropToSurface = mWatchSettings.isCropBackgroundToSurface();
+            final Uri photoUri = mWatchSettings.getBackgroundPhotoUri();
             /*
              * Create a gray version of the image only if it will look nice on the device in
-             * ambient mode. That means we don't want devices that support burn-in
-             * protection (slight movements in pixels, not great for images going all the way to
-             * edges) and low ambient mode (degrades image quality).
+             * ambient mode. Low-bit ambient can't show it (degrades image quality). Burn-in
+             * devices do show it, shifted a few pixels each minute.
              */
-            if (!mBurnInProtection && !mLowBitAmbient) {
-                initGrayBackgroundBitmap();
+            final boolean buildGrey = !mLowBitAmbient;
+            /* A dimmed background for mute mode costs another full-screen bitmap. */
+            final boolean buildDimmed = !mMemoryBudgetMode;
+            final int tintColor = mWatchSettings.getBackgroundTintColor();
+            final long imageHash = getBackgroundImageHash(photoUri, cropToSurface);
+            long sourceHash = imageHash * 31 + tintColor;
+            sourceHash = sourceHash * 31 + (buildGrey ? 1 : 0);
+            sourceHash = sourceHash * 31 + (buildDimmed ? 1 : 0);
+            mWatchPainter.beginBackgroundLoad(sourceHash);
+            if (mWatchSettings.isAutoHandColor()) {
+                loadAutoHandColorsAsync(photoUri, imageHash, cropToSurface);
+            }
+
+            mBackgroundBaker.schedule(() -> {
+                /* A restarted process can usually skip decoding and baking altogether. */
+                final CachedBackgrounds.BakedBackgrounds cached = mWatchPainter.loadBakedBackgrounds(date);
+                if (cached != null) {
+                    mStartupTimings.mark(StartupTimings.Stage.BACKGROUNDS_FROM_DISK);
+                    mUpdateTimeHandler.post(() -> {
+                        if (generation != mBackgroundLoadGeneration) return;
+                        mWatchPainter.finishBackgroundLoad(null, null, cached);
+                        scheduleBackgroundPrebake();
+                        invalidate();
+                    });
+                    return;
+                }
+
+                final Bitmap decoded = decodeBackground(photoUri, width, height, cropToSurface);
+                mStartupTimings.mark(StartupTimings.Stage.IMAGE_DECODED);
+
+                /* Grey, dimmed and tinted images come from a single pass over the pixels. */
+                final PixelPipeline.Variants variants = decoded == null ? null
+                        : PixelPipeline.createVariants(decoded, buildGrey, buildDimmed, tintColor);
+                final Bitmap background = variants != null && variants.tinted != null ? variants.tinted : decoded;
+                final Bitmap grey = variants != null ? variants.greyscale : null;
+                final Bitmap dimmed = variants != null ? variants.dimmed : null;
+                mStartupTimings.mark(StartupTimings.Stage.VARIANTS_BUILT);
+                mUpdateTimeHandler.post(() -> {
+                    if (generation != mBackgroundLoadGeneration) return;
+                    mWatchPainter.setLoadedBackground(background);
+                    invalidate();
+                });
+
+                final CachedBackgrounds.BakedBackgrounds baked =
+                        mWatchPainter.bakeLoadedBackgrounds(background, grey, dimmed, date);
+                mStartupTimings.mark(StartupTimings.Stage.BACKGROUNDS_BAKED);
+                mUpdateTimeHandler.post(() -> {
+                    if (generation != mBackgroundLoadGeneration) return;
+                    mWatchPainter.finishBackgroundLoad(grey, dimmed, baked);
+                    scheduleBackgroundPrebake();
+                    invalidate();
+                });
+            }, 0);
+        }
+
+        /**
+         * Decodes the user's photo if one is set and readable, otherwise the built-in background.
+         * Called on the BackgroundBaker thread.
+         *
+         * @param photoUri      the user's background photo, or null
+         * @param width         width to decode at
+         * @param height        height to decode at
+         * @param cropToSurface whether to crop to width x height
+         * @return the background, or null if neither could be decoded
+         */
+        private Bitmap decodeBackground(Uri photoUri, int width, int height, boolean cropToSurface) {
+            if (photoUri != null) {
+                Bitmap photo = BackgroundDecoder.decodeUri(getContentResolver(), photoUri, width, height,
+                        cropToSurface);
+                if (photo != null) return photo;
+                Log.w(TAG, "Can't decode background photo " + photoUri);
+            }
+            return BackgroundDecoder.decodeResource(getResources(), R.drawable.watchface_service_bg,
+                    width, height, cropToSurface);
+        }
+
+        /**
+         * Identifies the background image and how it is decoded, so the disk and palette caches
+         * never serve results from a different image or different settings.
+         * A photo is identified by its URI and when it was picked, which needs no call to its
+         * provider on this thread; picking the same photo again after editing it rebuilds it.
+         * The built-in background is identified by the APK's modification time, which changes
+         * whenever the app is updated.
+         */
+        private long getBackgroundImageHash(Uri photoUri, boolean cropToSurface) {
+            long hash;
+            if (photoUri != null) {
+                hash = photoUri.toString().hashCode();
+                hash = hash * 31 + mWatchSettings.getBackgroundPhotoPickedAt();
+            } else {
+                hash = R.drawable.watchface_service_bg;
+                hash = hash * 31 + new File(getApplicationInfo().sourceDir).lastModified();
             }
-            int date = mCalendar.get(Calendar.DATE);
-            this.mWatchPainter.cacheBackgrounds(mBackgroundBitmap, mGrayBackgroundBitmap, date);
+            hash = hash * 31 + (cropToSurface ? 1 : 0);
+            return hash;
         }
 
-        private void initGrayBackgroundBitmap() {
-            mGrayBackgroundBitmap = Bitmap.createBitmap(
-                    mBackgroundBitmap.getWidth(),
-                    mBackgroundBitmap.getHeight(),
-                    Bitmap.Config.ARGB_8888);
-            Canvas canvas = new Canvas(mGrayBackgroundBitmap);
-            Paint grayPaint = new BinaryPaint();
-            ColorMatrix colorMatrix = new ColorMatrix();
-            colorMatrix.setSaturation(0);
-            ColorMatrixColorFilter filter = new ColorMatrixColorFilter(colorMatrix);
-            grayPaint.setColorFilter(filter);
-            canvas.drawBitmap(mBackgroundBitmap, 0, 0, grayPaint);
+        /**
+         * Builds tomorrow's backgrounds shortly before midnight on the BackgroundBaker thread.
+         * Also builds today's straight away if the date changed under us, e.g. time zone change.
+         */
+        private void scheduleBackgroundPrebake() {
+            /* A load in progress reschedules this once it finishes. */
+            if (mWatchPainter.isBackgroundLoading()) return;
+            long now = mTimeSource.currentTimeMillis();
+            mPrebakeSchedule.update(now, mTimeSource.getTimeZone());
+            mWatchPainter.cancelPrebakes();
+            if (mWatchPainter.backgroundsRequireRebuild(mPrebakeSchedule.getToday())) {
+                mWatchPainter.prebakeBackgrounds(mPrebakeSchedule.getToday(), 0);
+            }
+            mWatchPainter.prebakeBackgrounds(mPrebakeSchedule.getNextDate(),
+                    mPrebakeSchedule.getNextPrebakeAtMs() - now);
         }
 
         /**
@@ -267,15 +542,111 @@ public class MyWatchFace extends CanvasWatchFaceService {
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-            long now = System.currentTimeMillis();
-            mCalendar.setTimeInMillis(now);
-            drawBackground(canvas);
-            drawWatchFace(canvas);
+            long frameStart = System.nanoTime();
+            long now = mTimeSource.currentTimeMillis();
+            mTimeAngles.update(now);
+            int date = mTimeAngles.getDayOfMonth();
+            if (mAmbient && mLowBitAmbient) {
+                mWatchPainter.drawLowBitFrame(canvas, mTimeAngles, mChargingStatus, date);
+            } else {
+                mWatchPainter.drawFrame(canvas, mTimeAngles, mCurrentWatchState, mChargingStatus, date);
+            }
+            mFillRateStats.recordFrame(mSurfaceWidth * mSurfaceHeight, mSurfaceWidth * mSurfaceHeight);
+            mRenderTelemetry.recordFrame(mCurrentWatchState, frameStart, System.nanoTime(),
+                    getExpectedFrameIntervalMs());
+            markStartupFrame();
+        }
+
+        /* Records which startup stage the frame just drawn showed */
+        private void markStartupFrame() {
+            if (mStartupTimings.isReached(StartupTimings.Stage.COMPLETE_FRAME)) return;
+            mStartupTimings.mark(StartupTimings.Stage.FIRST_FRAME);
+            if (mWatchPainter.isBackgroundLoading()) {
+                if (mWatchPainter.hasLoadedBackground()) {
+                    mStartupTimings.mark(StartupTimings.Stage.IMAGE_FRAME);
+                }
+            } else if (mStartupTimings.mark(StartupTimings.Stage.COMPLETE_FRAME)) {
+                Log.i(TAG, mStartupTimings.summary());
+            }
+        }
+
+        /* Interval frames should arrive at, or 0 when not updating periodically */
+        private long getExpectedFrameIntervalMs() {
+            if (!shouldTimerBeRunning()) return 0;
+            if (mVsyncPacing) return mVsyncScheduler.getTargetIntervalMs();
+            return mFrameRateGovernor.getFrameIntervalMs(mChargingStatus);
+        }
+
+        /**
+         * Draws a frame by locking and repainting only the region swept by the second hand.
+         * Falls back to a full invalidate() when the painter needs a full frame.
+         */
+        private void drawDirtyFrame() {
+            long frameStart = System.nanoTime();
+            long now = mTimeSource.currentTimeMillis();
+            mTimeAngles.update(now);
+            int date = mTimeAngles.getDayOfMonth();
+            if (!mWatchPainter.getDirtyRegion(mTimeAngles, mCurrentWatchState, mChargingStatus,
+                    date, mDirtyRegion)) {
+                invalidate();
+                return;
+            }
+
+            SurfaceHolder holder = getSurfaceHolder();
+            // The surface may grow mDirtyRegion to what it actually needs repainted.
+            Canvas canvas = holder.lockCanvas(mDirtyRegion);
+            if (canvas == null) {
+                invalidate();
+                return;
+            }
+            try {
+                mWatchPainter.drawFrame(canvas, mTimeAngles, mCurrentWatchState, mChargingStatus, date);
+            } finally {
+                holder.unlockCanvasAndPost(canvas);
+            }
+            mFillRateStats.recordFrame(mDirtyRegion, mSurfaceWidth * mSurfaceHeight);
+            mRenderTelemetry.recordFrame(mCurrentWatchState, frameStart, System.nanoTime(),
+                    getExpectedFrameIntervalMs());
+        }
+
+        @Override
+        protected void dump(String prefix, FileDescriptor fd, PrintWriter pw, String[] args) {
+            super.dump(prefix, fd, pw, args);
+            pw.print(prefix);
+            pw.println("dirtyRegionMode=" + mDirtyRegionMode
+                    + " lastFillFraction=" + mFillRateStats.getLastFraction()
+                    + " averageFillFraction=" + mFillRateStats.getAverageFraction()
+                    + " frames=" + mFillRateStats.getFrames());
+            pw.print(prefix);
+            pw.println("frameRateMode=" + mFrameRateGovernor.getMode()
+                    + " effectiveMode=" + mFrameRateGovernor.getEffectiveMode(mChargingStatus)
+                    + " frameIntervalMs=" + mFrameRateGovernor.getFrameIntervalMs(mChargingStatus)
+                    + " wakeupsPerMinute=" + mFrameRateGovernor.getWakeupsPerMinute());
+            mVsyncScheduler.dump(pw, prefix);
+            pw.print(prefix);
+            pw.println("batteryBroadcasts=" + mBatteryBroadcasts
+                    + " batteryRedraws=" + mBatteryRedraws);
+            pw.print(prefix);
+            pw.println("memoryBudgetMode=" + mMemoryBudgetMode);
+            mWatchPainter.dumpCacheStats(pw, prefix);
+            mRenderTelemetry.dump(pw, prefix);
+            mStartupTimings.dump(pw, prefix);
+
+            /*
+             * adb shell dumpsys activity service com.example.xealwatch replay [zone=..] [start=yyyy-MM-dd] [hours=..] [step=..]
+             */
+            for (String arg : args) {
+                if (DayReplay.DUMP_ARG.equals(arg)) {
+                    DayReplay replay = new DayReplay(getResources());
+                    mDiagnosticRunner.dump(pw, prefix, DayReplay.DUMP_ARG,
+                            (runnerPw, runnerPrefix) -> replay.run(runnerPw, runnerPrefix, args));
+                }
+            }
         }
 
 
         private void refreshWatchState() {
-            if (mAmbient && (mLowBitAmbient || mBurnInProtection)) {
+            if (mAmbient && mLowBitAmbient) {
                 mCurrentWatchState = WatchState.BLACK;
             } else if (mAmbient) {
                 mCurrentWatchState = WatchState.GRAY;
@@ -284,15 +655,6 @@ public class MyWatchFace extends CanvasWatchFaceService {
             }
         }
 
-        private void drawBackground(Canvas canvas) {
-            int date = mCalendar.get(Calendar.DATE);
-            mWatchPainter.drawBackground(canvas, mCurrentWatchState, mChargingStatus, date);
-        }
-
-        private void drawWatchFace(Canvas canvas) {
-            mWatchPainter.drawWatchFace(canvas,  mCalendar, mCurrentWatchState);
-        }
-
         @Override
         public void onVisibilityChanged(boolean visible) {
             super.onVisibilityChanged(visible);
@@ -301,7 +663,8 @@ public class MyWatchFace extends CanvasWatchFaceService {
                 registerTimeZoneReceiver();
                 registerChargingReceiver();
                 /* Update time zone in case it changed while we weren't visible. */
-                mCalendar.setTimeZone(TimeZone.getDefault());
+                mTimeAngles.setTimeZone(mTimeSource.getTimeZone());
+                scheduleBackgroundPrebake();
                 invalidate();
             } else {
                 unregisterTimeZoneReceiver();
@@ -326,6 +689,21 @@ public class MyWatchFace extends CanvasWatchFaceService {
             MyWatchFace.this.unregisterReceiver(mChargingReceiver);
         }
 
+        /* Applies the latest battery broadcast, redrawing only if what the face shows changed */
+        private void applyBatteryStatus() {
+            mUpdateTimeHandler.removeCallbacks(mApplyBatteryStatus);
+            mBatteryUpdatePosted = false;
+            if (mPendingBatteryIntent == null) return;
+
+            int displayState = mWatchPainter.getChargingDisplayState(mChargingStatus);
+            mChargingStatus.SetBatteryStatusIntent(mPendingBatteryIntent);
+            mPendingBatteryIntent = null;
+            if (mWatchPainter.getChargingDisplayState(mChargingStatus) != displayState) {
+                mBatteryRedraws++;
+                invalidate();
+            }
+        }
+
         private void registerTimeZoneReceiver() {
             if (mRegisteredTimeZoneReceiver) return;
 
@@ -346,8 +724,15 @@ public class MyWatchFace extends CanvasWatchFaceService {
          */
         private void updateTimer() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mVsyncScheduler.stop();
+            mFrameRateGovernor.resetWindow();
+            mRenderTelemetry.resetFrameInterval();
             if (shouldTimerBeRunning()) {
-                mUpdateTimeHandler.sendEmptyMessage(MSG_UPDATE_TIME);
+                if (mVsyncPacing) {
+                    mVsyncScheduler.start();
+                } else {
+                    mUpdateTimeHandler.sendEmptyMessage(MSG_UPDATE_TIME);
+                }
             }
         }
 
@@ -363,13 +748,21 @@ public class MyWatchFace extends CanvasWatchFaceService {
          * Handle updating the time periodically in interactive mode.
          */
         private void handleUpdateTimeMessage() {
-            invalidate();
+            drawPeriodicFrame();
             if (shouldTimerBeRunning()) {
-                long timeMs = System.currentTimeMillis();
-                long delayMs = INTERACTIVE_UPDATE_RATE_MS
-                        - (timeMs % INTERACTIVE_UPDATE_RATE_MS);
+                long timeMs = mTimeSource.currentTimeMillis();
+                long delayMs = mFrameRateGovernor.getNextDelayMs(timeMs, mChargingStatus);
                 mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
             }
         }
+
+        /* Draws an interactive frame, by repainting the dirty region or invalidating the surface */
+        private void drawPeriodicFrame() {
+            if (mDirtyRegionMode) {
+                drawDirtyFrame();
+            } else {
+                invalidate();
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -3,111 +3,182 @@ package com.example.xealwatch;
 import android.graphics.Color;
 import android.graphics.Paint;
 
+import java.util.Arrays;
+
+/**
+ * Holds every paint the face is drawn with, as one immutable PaintSet per combination of
+ * WatchState, tick state (lit for charging or not) and mute mode.
+ * Drawing selects a set by index and never changes a paint, so the same paints can be used
+ * from the UI thread and the BackgroundBaker thread at once. Changing hand colors builds new
+ * sets and swaps them in.
+ */
 public class PaintBucket {
-    private final BinaryPaint mHourPaint;
-    private final BinaryPaint mMinutePaint;
-    private final BinaryPaint mSecondPaint;
 
-    private final BinaryPaint mHourInsetPaint;
-    private final BinaryPaint mMinuteInsetPaint;
-
-    private final BinaryPaint mSmallTickPaint;
-    private final BinaryPaint mBigTickPaint;
-    private final BinaryPaint mBigTickInsetPaint;
-
-    private final BinaryPaint mDatePaint;
-    private final BinaryPaint mDateInsetPaint;
-    private final BinaryPaint mDateTextPaint;
+    /**
+     * The paints for one combination of watch state, tick state and mute mode.
+     * Never modified after construction.
+     */
+    public static final class PaintSet {
+        public final Paint hour;
+        public final Paint minute;
+        public final Paint second;
+        public final Paint hourInset;
+        public final Paint minuteInset;
+        public final Paint smallTick;
+        public final Paint bigTick;
+        public final Paint bigTickInset;
+
+        PaintSet(Paint[] hands, Paint[] insets, Paint[] ticks) {
+            hour = hands[0];
+            minute = hands[1];
+            second = hands[2];
+            hourInset = insets[0];
+            minuteInset = insets[1];
+            smallTick = ticks[0];
+            bigTick = ticks[1];
+            bigTickInset = ticks[2];
+        }
+    }
 
     private static final float HOUR_STROKE_WIDTH = 15f;
     private static final float MINUTE_STROKE_WIDTH = 10f;
-    private static final float SECOND_STROKE_WIDTH = 5f;
+    static final float SECOND_STROKE_WIDTH = 5f;
     private static final float LARGE_SECOND_TICK_STROKE_WIDTH = 16f;
     private static final float SMALL_SECOND_TICK_STROKE_WIDTH = 2f;
 
-    public PaintBucket(int watchHandColor, int watchHandSecondColor, int watchTickColor) {
-        mHourPaint = new BinaryPaint();
-        mHourPaint.initializeActive(watchHandColor, HOUR_STROKE_WIDTH, Paint.Cap.ROUND, Paint.Style.FILL);
-
-        mMinutePaint = new BinaryPaint();
-        mMinutePaint.initializeActive(watchHandColor, MINUTE_STROKE_WIDTH, Paint.Cap.ROUND, Paint.Style.FILL);
-
-        mHourInsetPaint = new BinaryPaint();
-        mHourInsetPaint.initializeActive(Color.BLACK, (HOUR_STROKE_WIDTH - 2), Paint.Cap.ROUND, Paint.Style.FILL);
-
-        mMinuteInsetPaint = new BinaryPaint();
-        mMinuteInsetPaint.initializeActive(Color.BLACK, (MINUTE_STROKE_WIDTH - 2), Paint.Cap.ROUND, Paint.Style.FILL);
-
-        mSecondPaint = new BinaryPaint();
-        mSecondPaint.initializeActive(watchHandSecondColor, SECOND_STROKE_WIDTH, Paint.Cap.ROUND, Paint.Style.FILL);
-
-        mSmallTickPaint = new BinaryPaint();
-        mSmallTickPaint.initializeActive(watchTickColor, SMALL_SECOND_TICK_STROKE_WIDTH, Paint.Cap.BUTT, Paint.Style.STROKE);
-
-        mBigTickPaint = new BinaryPaint();
-        mBigTickPaint.initializeActive(watchTickColor, LARGE_SECOND_TICK_STROKE_WIDTH, Paint.Cap.BUTT, Paint.Style.STROKE);
-        mBigTickPaint.initializeInactive(Color.WHITE, Paint.Style.STROKE);
-
-        mBigTickInsetPaint = new BinaryPaint();
-        mBigTickInsetPaint.initializeActive(watchTickColor, (LARGE_SECOND_TICK_STROKE_WIDTH - 2), Paint.Cap.BUTT, Paint.Style.STROKE);
-        mBigTickInsetPaint.initializeInactive(Color.BLACK, Paint.Style.STROKE);
-
-        mDateInsetPaint = new BinaryPaint();
-        mDateInsetPaint.initializeActive(Color.BLACK, 2, Paint.Cap.BUTT, Paint.Style.FILL);
-
-        mDatePaint = new BinaryPaint();
-        mDatePaint.initializeActive(Color.WHITE, 1, Paint.Cap.BUTT, Paint.Style.FILL);
-
-        mDateTextPaint = new BinaryPaint();
-        mDateTextPaint.initializeActive(Color.WHITE, 2, Paint.Cap.BUTT, Paint.Style.FILL);
-        mDateTextPaint.setTextSize(30);
-
-        mDateTextPaint.setTextAlign(Paint.Align.CENTER);
+    private static final int MUTED_HAND_ALPHA = 100;
+    private static final int MUTED_SECOND_HAND_ALPHA = 80;
+    private static final int INACTIVE_TICK_COLOR = Color.WHITE;
+    private static final int INACTIVE_TICK_INSET_COLOR = Color.BLACK;
+    private static final int AMBIENT_HAND_COLOR = Color.WHITE;
+    private static final int DATE_COLOR = Color.WHITE;
+    private static final int DATE_INSET_COLOR = Color.BLACK;
+
+    private final boolean mAntiAlias;
+    private final int mWatchTickColor;
+    /* Hand insets and ticks never change, so they are shared by every PaintSet built */
+    private final Paint[] mInsetPaints;
+    private final Paint[] mActiveTickPaints;
+    private final Paint[] mInactiveTickPaints;
+
+    private final Paint mDatePaint;
+    private final Paint mDateInsetPaint;
+    private final Paint mDateTextPaint;
+
+    /* Indexed by getPaintSetIndex; replaced as a whole when the hand colors change */
+    private volatile PaintSet[] mPaintSets;
+    private volatile boolean mMuteMode = false;
 
+    public PaintBucket(int watchHandColor, int watchHandSecondColor, int watchTickColor) {
+        this(watchHandColor, watchHandSecondColor, watchTickColor, true);
     }
 
-    public BinaryPaint getHourPaint() {
-        return mHourPaint;
+    /**
+     * Creates paints for low-bit ambient: pure white on black, without anti-aliasing.
+     *
+     * @return a new PaintBucket
+     */
+    public static PaintBucket createLowBitPaintBucket() {
+        return new PaintBucket(Color.WHITE, Color.WHITE, Color.WHITE, false);
     }
 
-    public BinaryPaint getMinutePaint() {
-        return mMinutePaint;
-    }
+    private PaintBucket(int watchHandColor, int watchHandSecondColor, int watchTickColor, boolean antiAlias) {
+        mAntiAlias = antiAlias;
+        mWatchTickColor = watchTickColor;
 
-    public BinaryPaint getSecondPaint() {
-        return mSecondPaint;
-    }
+        mInsetPaints = new Paint[]{
+                createPaint(Color.BLACK, (HOUR_STROKE_WIDTH - 2), Paint.Cap.ROUND, Paint.Style.FILL),
+                createPaint(Color.BLACK, (MINUTE_STROKE_WIDTH - 2), Paint.Cap.ROUND, Paint.Style.FILL)};
+        mActiveTickPaints = createTickPaints(watchTickColor, watchTickColor);
+        mInactiveTickPaints = createTickPaints(INACTIVE_TICK_COLOR, INACTIVE_TICK_INSET_COLOR);
 
-    public BinaryPaint getSmallTickPaint() {
-        return mSmallTickPaint;
-    }
+        mDateInsetPaint = createPaint(DATE_INSET_COLOR, 2, Paint.Cap.BUTT, Paint.Style.FILL);
+        mDatePaint = createPaint(DATE_COLOR, 1, Paint.Cap.BUTT, Paint.Style.FILL);
+        mDateTextPaint = createPaint(DATE_COLOR, 2, Paint.Cap.BUTT, Paint.Style.FILL);
+        mDateTextPaint.setTextSize(30);
+        mDateTextPaint.setTextAlign(Paint.Align.CENTER);
 
-    public BinaryPaint getHourInsetPaint() {
-        return mHourInsetPaint;
+        mPaintSets = buildPaintSets(watchHandColor, watchHandSecondColor);
     }
 
-    public BinaryPaint getMinuteInsetPaint() {
-        return mMinuteInsetPaint;
+    /**
+     * Selects the paints to draw with. Never allocates or changes a paint.
+     *
+     * @param ws          watch state being drawn; hands are drawn in white outside WatchState.FULL
+     * @param ticksActive whether ticks should be lit in the tick color, e.g. to show charge progress
+     * @return the paints for this state and the current mute mode
+     */
+    public PaintSet getPaints(WatchState ws, boolean ticksActive) {
+        return mPaintSets[getPaintSetIndex(ws, ticksActive, mMuteMode)];
+    }
+
+    private static int getPaintSetIndex(WatchState ws, boolean ticksActive, boolean muted) {
+        return (ws.ordinal() * 2 + (ticksActive ? 1 : 0)) * 2 + (muted ? 1 : 0);
+    }
+
+    /* Builds every PaintSet, sharing paints between sets that look the same */
+    private PaintSet[] buildPaintSets(int watchHandColor, int watchHandSecondColor) {
+        Paint[][] interactiveHands = {
+                createHandPaints(watchHandColor, watchHandSecondColor, Paint.Style.FILL, false),
+                createHandPaints(watchHandColor, watchHandSecondColor, Paint.Style.FILL, true)};
+        Paint[][] ambientHands = {
+                createHandPaints(AMBIENT_HAND_COLOR, AMBIENT_HAND_COLOR, Paint.Style.STROKE, false),
+                createHandPaints(AMBIENT_HAND_COLOR, AMBIENT_HAND_COLOR, Paint.Style.STROKE, true)};
+
+        PaintSet[] paintSets = new PaintSet[WatchState.values().length * 4];
+        for (WatchState ws : WatchState.values()) {
+            Paint[][] hands = ws == WatchState.FULL ? interactiveHands : ambientHands;
+            for (int muted = 0; muted < 2; muted++) {
+                paintSets[getPaintSetIndex(ws, false, muted == 1)] =
+                        new PaintSet(hands[muted], mInsetPaints, mInactiveTickPaints);
+                paintSets[getPaintSetIndex(ws, true, muted == 1)] =
+                        new PaintSet(hands[muted], mInsetPaints, mActiveTickPaints);
+            }
+        }
+        return paintSets;
+    }
+
+    /* Hour, minute and second hand paints; muted hands are drawn with reduced alpha */
+    private Paint[] createHandPaints(int handColor, int secondColor, Paint.Style style, boolean muted) {
+        Paint[] paints = {
+                createPaint(handColor, HOUR_STROKE_WIDTH, Paint.Cap.ROUND, style),
+                createPaint(handColor, MINUTE_STROKE_WIDTH, Paint.Cap.ROUND, style),
+                createPaint(secondColor, SECOND_STROKE_WIDTH, Paint.Cap.ROUND, style)};
+        if (muted) {
+            paints[0].setAlpha(MUTED_HAND_ALPHA);
+            paints[1].setAlpha(MUTED_HAND_ALPHA);
+            paints[2].setAlpha(MUTED_SECOND_HAND_ALPHA);
+        }
+        return paints;
     }
 
-    public BinaryPaint getBigTickPaint() {
-        return mBigTickPaint;
+    /* Small tick, big tick and big tick inset paints */
+    private Paint[] createTickPaints(int tickColor, int insetColor) {
+        return new Paint[]{
+                createPaint(tickColor, SMALL_SECOND_TICK_STROKE_WIDTH, Paint.Cap.BUTT, Paint.Style.STROKE),
+                createPaint(tickColor, LARGE_SECOND_TICK_STROKE_WIDTH, Paint.Cap.BUTT, Paint.Style.STROKE),
+                createPaint(insetColor, (LARGE_SECOND_TICK_STROKE_WIDTH - 2), Paint.Cap.BUTT, Paint.Style.STROKE)};
     }
 
-    public BinaryPaint getBigTickInsetPaint() {
-        return mBigTickInsetPaint;
+    private Paint createPaint(int color, float strokeWidth, Paint.Cap strokeCap, Paint.Style style) {
+        Paint paint = new Paint();
+        paint.setColor(color);
+        paint.setStrokeWidth(strokeWidth);
+        paint.setStrokeCap(strokeCap);
+        paint.setAntiAlias(mAntiAlias);
+        paint.setStyle(style);
+        return paint;
     }
 
-
     /**
-     * Updates watch-hand styles based on if we're ambient
+     * Changes the hand colors by building new paint sets. Ticks and date keep their colors,
+     * so backgrounds baked with this PaintBucket stay valid.
      *
-     * @param isAmbient whether we are in ambient mode
+     * @param watchHandColor       color of the hour and minute hands
+     * @param watchHandSecondColor color of the second hand
      */
-    public void updateWatchHandStyles(boolean isAmbient) {
-        for (BinaryPaint paint : new BinaryPaint[]{mHourPaint, mMinutePaint, mSecondPaint}) {
-            paint.setActive(!isAmbient);
-        }
+    public void setHandColors(int watchHandColor, int watchHandSecondColor) {
+        mPaintSets = buildPaintSets(watchHandColor, watchHandSecondColor);
     }
 
     /**
@@ -116,32 +187,31 @@ public class PaintBucket {
      * @param inMuteMode whether to mute the colors
      */
     public void setMuteMode(boolean inMuteMode) {
-        mHourPaint.setAlpha(inMuteMode ? 100 : 255);
-        mMinutePaint.setAlpha(inMuteMode ? 100 : 255);
-        mSecondPaint.setAlpha(inMuteMode ? 80 : 255);
+        mMuteMode = inMuteMode;
     }
 
-    public void setTicksInActive() {
-        mBigTickPaint.setInactive();
-        mBigTickInsetPaint.setInactive();
-        mSmallTickPaint.setInactive();
-    }
-
-    public void setTicksActive() {
-        mBigTickPaint.setActive();
-        mBigTickInsetPaint.setActive();
-        mSmallTickPaint.setActive();
+    /**
+     * Hash of every color baked into cached backgrounds: ticks and date, but not the hands.
+     *
+     * @return hash of the background colors
+     */
+    public int getBackgroundColorHash() {
+        return Arrays.hashCode(new int[]{
+                mWatchTickColor, INACTIVE_TICK_COLOR,
+                mWatchTickColor, INACTIVE_TICK_COLOR,
+                mWatchTickColor, INACTIVE_TICK_INSET_COLOR,
+                DATE_COLOR, DATE_INSET_COLOR, DATE_COLOR});
     }
 
-    public BinaryPaint getDatePaint() {
+    public Paint getDatePaint() {
         return mDatePaint;
     }
 
-    public BinaryPaint getDateInsetPaint() {
+    public Paint getDateInsetPaint() {
         return mDateInsetPaint;
     }
 
-    public BinaryPaint getDateTextPaint() {
+    public Paint getDateTextPaint() {
         return mDateTextPaint;
     }
 }
@@ -0,0 +1,78 @@
+package com.example.xealwatch;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+
+import androidx.palette.graphics.Palette;
+
+/**
+ * Hand colors extracted from background images, kept in shared preferences by image hash,
+ * so an image's palette is only ever extracted once.
+ */
+public class PaletteCache {
+    private static final String PREFERENCES_NAME = "xealwatch_palette";
+
+    private static final String KEY_HAND_COLOR = "hand_color_";
+    private static final String KEY_SECOND_COLOR = "second_color_";
+
+    /* Size of the downsampled copy colors are extracted from */
+    static final int EXTRACTION_SIZE = 96;
+
+    private final SharedPreferences mPreferences;
+
+    /**
+     * Colors for the hour and minute hands, and for the second hand.
+     */
+    public static class HandColors {
+        final int hand;
+        final int second;
+
+        public HandColors(int hand, int second) {
+            this.hand = hand;
+            this.second = second;
+        }
+    }
+
+    public PaletteCache(Context context) {
+        mPreferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @param imageHash identifies the background image
+     * @return colors extracted from the image earlier, or null
+     */
+    public HandColors get(long imageHash) {
+        String suffix = Long.toHexString(imageHash);
+        if (!mPreferences.contains(KEY_HAND_COLOR + suffix)) return null;
+        return new HandColors(mPreferences.getInt(KEY_HAND_COLOR + suffix, 0),
+                mPreferences.getInt(KEY_SECOND_COLOR + suffix, 0));
+    }
+
+    /**
+     * @param imageHash identifies the background image
+     * @param colors    colors extracted from it
+     */
+    public void put(long imageHash, HandColors colors) {
+        String suffix = Long.toHexString(imageHash);
+        mPreferences.edit()
+                .putInt(KEY_HAND_COLOR + suffix, colors.hand)
+                .putInt(KEY_SECOND_COLOR + suffix, colors.second)
+                .apply();
+    }
+
+    /**
+     * Extracts hand colors from an image. Blocks, so call it off the main thread,
+     * on a copy no bigger than EXTRACTION_SIZE.
+     *
+     * @param image        downsampled background image
+     * @param handColor    color to use if the image has no light vibrant swatch
+     * @param secondColor  color to use if the image has no vibrant swatch
+     * @return the extracted colors
+     */
+    public static HandColors extract(Bitmap image, int handColor, int secondColor) {
+        Palette palette = Palette.from(image).generate();
+        if (palette == null) return new HandColors(handColor, secondColor);
+        return new HandColors(palette.getLightVibrantColor(handColor), palette.getVibrantColor(secondColor));
+    }
+}
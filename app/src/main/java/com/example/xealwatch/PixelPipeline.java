@@ -0,0 +1,135 @@
+package com.example.xealwatch;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds greyscale, mute-dimmed and tinted variants of a background in one pass over its pixels.
+ * The image is split into bands of rows; each core takes bands in turn, reads a band into an
+ * int[] tile, computes every requested variant from it and writes the results back.
+ * Replaces drawing through a ColorMatrix filter, which needs one full pass per variant.
+ */
+public class PixelPipeline {
+    private static final int TILE_ROWS = 32;
+    private static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(THREADS, runnable -> {
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "PixelPipeline");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /* How bright the background is in mute mode, out of 256 */
+    static final int MUTE_DIM_SCALE = 128;
+
+    private PixelPipeline() {
+    }
+
+    /**
+     * The variants built by {@link #createVariants}; any not asked for are null.
+     */
+    public static class Variants {
+        public final Bitmap greyscale;
+        public final Bitmap dimmed;
+        public final Bitmap tinted;
+
+        Variants(Bitmap greyscale, Bitmap dimmed, Bitmap tinted) {
+            this.greyscale = greyscale;
+            this.dimmed = dimmed;
+            this.tinted = tinted;
+        }
+    }
+
+    /**
+     * Builds variants of a background. Blocks until done, so call it off the main thread.
+     *
+     * @param source    background in full colour
+     * @param greyscale whether to build a greyscale variant
+     * @param dimmed    whether to build a variant dimmed for mute mode; when tinting,
+     *                  the tinted variant is the one dimmed
+     * @param tintColor color to tint a greyscale copy with, or Color.TRANSPARENT for none
+     * @return the variants
+     */
+    public static Variants createVariants(Bitmap source, boolean greyscale, boolean dimmed, int tintColor) {
+        final int width = source.getWidth();
+        final int height = source.getHeight();
+        final Bitmap grey = greyscale ? Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888) : null;
+        final Bitmap dim = dimmed ? Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888) : null;
+        final Bitmap tint = tintColor != Color.TRANSPARENT
+                ? Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888) : null;
+        final int tintRed = Color.red(tintColor);
+        final int tintGreen = Color.green(tintColor);
+        final int tintBlue = Color.blue(tintColor);
+
+        final int tiles = (height + TILE_ROWS - 1) / TILE_ROWS;
+        final AtomicInteger nextTile = new AtomicInteger();
+        Callable<Void> worker = () -> {
+            int[] pixels = new int[width * TILE_ROWS];
+            int[] greyPixels = grey != null ? new int[pixels.length] : null;
+            int[] dimPixels = dim != null ? new int[pixels.length] : null;
+            int[] tintPixels = tint != null ? new int[pixels.length] : null;
+            for (int tile = nextTile.getAndIncrement(); tile < tiles; tile = nextTile.getAndIncrement()) {
+                int top = tile * TILE_ROWS;
+                int rows = Math.min(TILE_ROWS, height - top);
+                int count = width * rows;
+                source.getPixels(pixels, 0, width, 0, top, width, rows);
+                for (int i = 0; i < count; i++) {
+                    int pixel = pixels[i];
+                    int alpha = pixel & 0xff000000;
+                    int red = (pixel >> 16) & 0xff;
+                    int green = (pixel >> 8) & 0xff;
+                    int blue = pixel & 0xff;
+                    int luma = LuminanceMask.luma(pixel);
+                    if (greyPixels != null) {
+                        greyPixels[i] = alpha | (luma << 16) | (luma << 8) | luma;
+                    }
+                    if (tintPixels != null) {
+                        red = luma * tintRed / 255;
+                        green = luma * tintGreen / 255;
+                        blue = luma * tintBlue / 255;
+                        tintPixels[i] = alpha | (red << 16) | (green << 8) | blue;
+                    }
+                    if (dimPixels != null) {
+                        dimPixels[i] = alpha
+                                | (((red * MUTE_DIM_SCALE) >> 8) << 16)
+                                | (((green * MUTE_DIM_SCALE) >> 8) << 8)
+                                | ((blue * MUTE_DIM_SCALE) >> 8);
+                    }
+                }
+                // Bands don't overlap, so each one can be written back independently.
+                if (grey != null) grey.setPixels(greyPixels, 0, width, 0, top, width, rows);
+                if (dim != null) dim.setPixels(dimPixels, 0, width, 0, top, width, rows);
+                if (tint != null) tint.setPixels(tintPixels, 0, width, 0, top, width, rows);
+            }
+            return null;
+        };
+
+        List<Callable<Void>> workers = new ArrayList<>(THREADS);
+        for (int i = 0; i < Math.min(THREADS, tiles); i++) {
+            workers.add(worker);
+        }
+        try {
+            for (Future<Void> result : EXECUTOR.invokeAll(workers)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted building background variants", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed building background variants", e.getCause());
+        }
+        return new Variants(grey, dim, tint);
+    }
+}
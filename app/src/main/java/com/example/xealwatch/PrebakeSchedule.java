@@ -0,0 +1,55 @@
+package com.example.xealwatch;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Works out which date's backgrounds to prebake next, and when: shortly before local midnight,
+ * so the first frame of the new date swaps them in instead of baking them itself.
+ * Shared by the engine, which posts the prebake with a delay, and DayReplay, which posts it
+ * when simulated time reaches it.
+ */
+public class PrebakeSchedule {
+    /* How long before midnight the next date's backgrounds are built */
+    static final long PREBAKE_LEAD_MS = 5 * 60 * 1000;
+
+    private final Calendar mCalendar = Calendar.getInstance();
+    private int mToday = -1;
+    private int mNextDate = -1;
+    private long mNextPrebakeAtMs = 0;
+
+    /**
+     * Recomputes the schedule from the current time.
+     *
+     * @param nowMs    current time in milliseconds since the epoch
+     * @param timeZone time zone the face shows the time in
+     */
+    public void update(long nowMs, TimeZone timeZone) {
+        mCalendar.setTimeZone(timeZone);
+        mCalendar.setTimeInMillis(nowMs);
+        mToday = mCalendar.get(Calendar.DATE);
+
+        mCalendar.add(Calendar.DATE, 1);
+        mCalendar.set(Calendar.HOUR_OF_DAY, 0);
+        mCalendar.set(Calendar.MINUTE, 0);
+        mCalendar.set(Calendar.SECOND, 0);
+        mCalendar.set(Calendar.MILLISECOND, 0);
+        mNextDate = mCalendar.get(Calendar.DATE);
+        mNextPrebakeAtMs = Math.max(nowMs, mCalendar.getTimeInMillis() - PREBAKE_LEAD_MS);
+    }
+
+    /* Date at the last update */
+    public int getToday() {
+        return mToday;
+    }
+
+    /* Date to prebake next, or -1 before the first update */
+    public int getNextDate() {
+        return mNextDate;
+    }
+
+    /* When to start prebaking the next date, in milliseconds since the epoch */
+    public long getNextPrebakeAtMs() {
+        return mNextPrebakeAtMs;
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.xealwatch;
+
+import java.io.PrintWriter;
+
+/**
+ * Lightweight render instrumentation: draw-time histograms per phase and per WatchState,
+ * and a count of interactive frames that arrived later than the update rate allows.
+ * Recording does not allocate.
+ */
+public class RenderTelemetry {
+
+    public enum Phase {
+        FRAME,      // whole of onDraw
+        BACKGROUND, // drawBackground, including any cache rebuilds
+        WATCH_FACE  // hands and compositing
+    }
+
+    /* A frame is missed if it arrives this many update intervals after the previous one */
+    private static final float MISSED_FRAME_FACTOR = 1.5f;
+    private static final long NANOS_PER_MILLI = 1000 * 1000;
+
+    private final LatencyHistogram[] mPhaseHistograms = new LatencyHistogram[Phase.values().length];
+    private final LatencyHistogram[] mStateHistograms = new LatencyHistogram[WatchState.values().length];
+    private long mLastFrameStartNanos = -1;
+    private long mMissedFrames = 0;
+
+    public RenderTelemetry() {
+        for (int i = 0; i < mPhaseHistograms.length; i++) {
+            mPhaseHistograms[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < mStateHistograms.length; i++) {
+            mStateHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Records the duration of part of a frame.
+     *
+     * @param phase which part
+     * @param nanos duration in nanoseconds
+     */
+    public void recordPhase(Phase phase, long nanos) {
+        mPhaseHistograms[phase.ordinal()].record(nanos);
+    }
+
+    /**
+     * Records a whole frame, and whether it arrived late.
+     *
+     * @param ws                 state the frame was drawn in
+     * @param startNanos         System.nanoTime() at the start of the frame
+     * @param endNanos           System.nanoTime() at the end of the frame
+     * @param expectedIntervalMs interactive update interval, or 0 if frames aren't periodic
+     */
+    public void recordFrame(WatchState ws, long startNanos, long endNanos, long expectedIntervalMs) {
+        long duration = endNanos - startNanos;
+        mPhaseHistograms[Phase.FRAME.ordinal()].record(duration);
+        mStateHistograms[ws.ordinal()].record(duration);
+
+        if (expectedIntervalMs > 0 && mLastFrameStartNanos >= 0) {
+            long expectedNanos = expectedIntervalMs * NANOS_PER_MILLI;
+            long gap = startNanos - mLastFrameStartNanos;
+            if (gap > expectedNanos * MISSED_FRAME_FACTOR) {
+                mMissedFrames += Math.max(1, Math.round(gap / (double) expectedNanos) - 1);
+            }
+        }
+        mLastFrameStartNanos = expectedIntervalMs > 0 ? startNanos : -1;
+    }
+
+    /**
+     * Call when periodic frames stop (e.g. entering ambient), so the gap isn't counted as missed.
+     */
+    public void resetFrameInterval() {
+        mLastFrameStartNanos = -1;
+    }
+
+    public long getMissedFrames() {
+        return mMissedFrames;
+    }
+
+    public LatencyHistogram getPhaseHistogram(Phase phase) {
+        return mPhaseHistograms[phase.ordinal()];
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : mPhaseHistograms) histogram.reset();
+        for (LatencyHistogram histogram : mStateHistograms) histogram.reset();
+        mMissedFrames = 0;
+        mLastFrameStartNanos = -1;
+    }
+
+    /* One-line summary for periodic logging */
+    public String summary() {
+        return "frame[" + getPhaseHistogram(Phase.FRAME).summary() + "]"
+                + " background[" + getPhaseHistogram(Phase.BACKGROUND).summary() + "]"
+                + " watchFace[" + getPhaseHistogram(Phase.WATCH_FACE).summary() + "]"
+                + " missedFrames=" + mMissedFrames;
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        for (Phase phase : Phase.values()) {
+            mPhaseHistograms[phase.ordinal()].dump(pw, prefix, phase.name());
+        }
+        for (WatchState ws : WatchState.values()) {
+            mStateHistograms[ws.ordinal()].dump(pw, prefix, "FRAME_" + ws.name());
+        }
+        pw.print(prefix);
+        pw.println("missedFrames=" + mMissedFrames);
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.xealwatch;
+
+import java.util.TimeZone;
+
+/**
+ * A TimeSource whose time only moves when told to, for replaying simulated time.
+ */
+public class ReplayTimeSource implements TimeSource {
+    private long mTimeMillis;
+    private TimeZone mTimeZone;
+
+    /**
+     * @param startMillis milliseconds since the epoch to start at
+     * @param timeZone    time zone to replay in
+     */
+    public ReplayTimeSource(long startMillis, TimeZone timeZone) {
+        mTimeMillis = startMillis;
+        mTimeZone = timeZone;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return mTimeMillis;
+    }
+
+    @Override
+    public TimeZone getTimeZone() {
+        return mTimeZone;
+    }
+
+    public void setTimeMillis(long timeMillis) {
+        mTimeMillis = timeMillis;
+    }
+
+    /**
+     * Moves time forward.
+     *
+     * @param millis milliseconds to advance by
+     */
+    public void advance(long millis) {
+        mTimeMillis += millis;
+    }
+
+    public void setTimeZone(TimeZone timeZone) {
+        mTimeZone = timeZone;
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.xealwatch;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records when each stage of watch face startup completed, so a slow switch to the watch face
+ * can be broken down into waiting for the surface, decoding, and baking.
+ * Stages may be marked from any thread; only the first time each stage is reached is kept.
+ */
+public class StartupTimings {
+
+    public enum Stage {
+        ENGINE_CREATED,        // Engine.onCreate
+        SURFACE_READY,         // onSurfaceChanged, backgrounds queued on the worker
+        FIRST_FRAME,           // hands on black
+        IMAGE_DECODED,         // background image decoded at surface size
+        VARIANTS_BUILT,        // greyscale, dimmed and tinted images built
+        IMAGE_FRAME,           // first frame drawn over the raw background image
+        BACKGROUNDS_BAKED,     // colour, grey and black backgrounds baked
+        BACKGROUNDS_FROM_DISK, // or instead, loaded from the disk cache
+        COMPLETE_FRAME         // first frame drawn from the baked backgrounds
+    }
+
+    private static final long NOT_REACHED = 0;
+    private static final long NANOS_PER_MILLI = 1000 * 1000;
+
+    private final AtomicLongArray mStageNanos = new AtomicLongArray(Stage.values().length);
+
+    /**
+     * Records that a stage was reached now, unless it has been reached before.
+     *
+     * @param stage stage reached
+     * @return whether this was the first time
+     */
+    public boolean mark(Stage stage) {
+        return mStageNanos.compareAndSet(stage.ordinal(), NOT_REACHED, SystemClock.elapsedRealtimeNanos());
+    }
+
+    public boolean isReached(Stage stage) {
+        return mStageNanos.get(stage.ordinal()) != NOT_REACHED;
+    }
+
+    /**
+     * @param stage stage to look up
+     * @return milliseconds from engine creation to the stage, or -1 if not reached
+     */
+    public long getMillisSinceCreated(Stage stage) {
+        long origin = mStageNanos.get(Stage.ENGINE_CREATED.ordinal());
+        long reached = mStageNanos.get(stage.ordinal());
+        if (origin == NOT_REACHED || reached == NOT_REACHED) return -1;
+        return (reached - origin) / NANOS_PER_MILLI;
+    }
+
+    /* One line with the time of every stage reached, since engine creation */
+    public String summary() {
+        StringBuilder builder = new StringBuilder("startup");
+        for (Stage stage : Stage.values()) {
+            if (stage == Stage.ENGINE_CREATED || !isReached(stage)) continue;
+            builder.append(' ').append(stage.name().toLowerCase()).append('=')
+                    .append(getMillisSinceCreated(stage)).append("ms");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Prints each stage reached, with the time since engine creation.
+     *
+     * @param pw     writer to print to
+     * @param prefix line prefix
+     */
+    public void dump(PrintWriter pw, String prefix) {
+        for (Stage stage : Stage.values()) {
+            if (stage == Stage.ENGINE_CREATED || !isReached(stage)) continue;
+            pw.print(prefix);
+            pw.println("startup " + stage.name().toLowerCase() + "Ms=" + getMillisSinceCreated(stage));
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.xealwatch;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Computes hand angles and the day of month straight from epoch millis.
+ * The UTC offset and day of month are cached, and only recomputed (through Calendar)
+ * when the time zone changes, or time crosses a date boundary or DST transition.
+ * Angles are in degrees, clockwise from twelve o'clock.
+ */
+public class TimeAngles {
+    static final long MILLIS_PER_SECOND = 1000;
+    static final long MILLIS_PER_MINUTE = 60 * MILLIS_PER_SECOND;
+    static final long MILLIS_PER_HOUR = 60 * MILLIS_PER_MINUTE;
+    static final long MILLIS_PER_HALF_DAY = 12 * MILLIS_PER_HOUR;
+    static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+    static final int MINUTES_PER_DAY = (int) (MILLIS_PER_DAY / MILLIS_PER_MINUTE);
+
+    private static final float DEGREES_PER_SECOND = 6f;
+    private static final float DEGREES_PER_MINUTE = 6f;
+    private static final float DEGREES_PER_HOUR = 30f;
+
+    private final Calendar mCalendar = Calendar.getInstance();
+    private TimeZone mTimeZone = TimeZone.getDefault();
+
+    /* Cached offset and date, valid for epoch millis in [mValidFromMs, mValidUntilMs) */
+    private long mOffsetMs = 0;
+    private int mDayOfMonth = 0;
+    private long mValidFromMs = 1;
+    private long mValidUntilMs = 0;
+    private long mRefreshCount = 0;
+
+    private long mMillisOfDay = 0;
+
+    /**
+     * Call this on the time zone broadcast.
+     *
+     * @param timeZone new time zone
+     */
+    public void setTimeZone(TimeZone timeZone) {
+        mTimeZone = timeZone;
+        mCalendar.setTimeZone(timeZone);
+        invalidate();
+    }
+
+    /**
+     * Forces the offset and date to be recomputed on the next update.
+     */
+    public void invalidate() {
+        mValidFromMs = 1;
+        mValidUntilMs = 0;
+    }
+
+    /**
+     * Sets the current time. Doesn't allocate or touch Calendar unless the cached
+     * offset or date has expired.
+     *
+     * @param epochMillis milliseconds since the epoch
+     */
+    public void update(long epochMillis) {
+        if (epochMillis < mValidFromMs || epochMillis >= mValidUntilMs) {
+            refresh(epochMillis);
+        }
+        mMillisOfDay = floorMod(epochMillis + mOffsetMs, MILLIS_PER_DAY);
+    }
+
+    /* Recomputes the offset, date and how long they stay valid */
+    private void refresh(long epochMillis) {
+        mRefreshCount++;
+        mOffsetMs = mTimeZone.getOffset(epochMillis);
+        mCalendar.setTimeInMillis(epochMillis);
+        mDayOfMonth = mCalendar.get(Calendar.DATE);
+
+        long localMillis = epochMillis + mOffsetMs;
+        long nextMidnight = localMillis - floorMod(localMillis, MILLIS_PER_DAY) + MILLIS_PER_DAY - mOffsetMs;
+        mValidFromMs = epochMillis;
+        mValidUntilMs = findOffsetChange(epochMillis, nextMidnight);
+    }
+
+    /*
+     * Returns the first time in (from, until] where the offset differs from mOffsetMs,
+     * or until if it doesn't change. Offsets only change at DST transitions, so bisect.
+     */
+    private long findOffsetChange(long from, long until) {
+        if (mTimeZone.getOffset(until - 1) == mOffsetMs) return until;
+        long low = from;
+        long high = until - 1;
+        while (high - low > 1) {
+            long middle = low + (high - low) / 2;
+            if (mTimeZone.getOffset(middle) == mOffsetMs) low = middle;
+            else high = middle;
+        }
+        return high;
+    }
+
+    private static long floorMod(long value, long divisor) {
+        long mod = value % divisor;
+        return mod < 0 ? mod + divisor : mod;
+    }
+
+    public float getSecondDegrees() {
+        return DEGREES_PER_SECOND * (mMillisOfDay % MILLIS_PER_MINUTE) / MILLIS_PER_SECOND;
+    }
+
+    public float getMinuteDegrees() {
+        return DEGREES_PER_MINUTE * (mMillisOfDay % MILLIS_PER_HOUR) / (float) MILLIS_PER_MINUTE;
+    }
+
+    public float getHourDegrees() {
+        return DEGREES_PER_HOUR * (mMillisOfDay % MILLIS_PER_HALF_DAY) / (float) MILLIS_PER_HOUR;
+    }
+
+    /* Minute hand angle, ignoring seconds, so it only changes once per minute */
+    public float getMinuteResolutionMinuteDegrees() {
+        return DEGREES_PER_MINUTE * (getMinuteOfDay() % 60);
+    }
+
+    /* Hour hand angle, ignoring seconds, so it only changes once per minute */
+    public float getMinuteResolutionHourDegrees() {
+        return DEGREES_PER_HOUR * (getMinuteOfDay() % (12 * 60)) / 60f;
+    }
+
+    /* Minute of the day, 0 to 1439 */
+    public int getMinuteOfDay() {
+        return (int) (mMillisOfDay / MILLIS_PER_MINUTE);
+    }
+
+    public int getDayOfMonth() {
+        return mDayOfMonth;
+    }
+
+    /* How many times the offset and date have been recomputed */
+    public long getRefreshCount() {
+        return mRefreshCount;
+    }
+}
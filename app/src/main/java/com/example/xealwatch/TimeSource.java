@@ -0,0 +1,29 @@
+package com.example.xealwatch;
+
+import java.util.TimeZone;
+
+/**
+ * Where the watch face reads wall-clock time and the time zone from.
+ * The system clock in production; a {@link ReplayTimeSource} to run simulated time,
+ * e.g. a whole day with its midnight rollover and DST transitions, faster than real time.
+ */
+public interface TimeSource {
+
+    TimeSource SYSTEM = new TimeSource() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public TimeZone getTimeZone() {
+            return TimeZone.getDefault();
+        }
+    };
+
+    /* Milliseconds since the epoch */
+    long currentTimeMillis();
+
+    /* The time zone to show the time in */
+    TimeZone getTimeZone();
+}
@@ -0,0 +1,88 @@
+package com.example.xealwatch;
+
+/**
+ * Fixed-resolution sine/cosine lookup table in degrees.
+ * The table is sized so that linearly interpolated points on a circle of the
+ * given radius are within a small fraction of a pixel of the exact result.
+ * Its size is always a multiple of 60, so tick angles land exactly on an entry.
+ */
+public class TrigTable {
+    /* Largest allowed interpolation error at the radius, in pixels */
+    private static final float MAX_ERROR_PIXELS = 0.01f;
+    private static final int TICK_DIVISIONS = 60;
+    private static final float DEGREES_PER_REVOLUTION = 360f;
+
+    private float[] mSin = new float[0];
+    private int mSize = 0;
+    private float mEntriesPerDegree = 0;
+
+    public TrigTable() {
+        resize(1);
+    }
+
+    /**
+     * Rebuilds the table for points up to a given distance from the centre.
+     * Linear interpolation errs by at most radius * step^2 / 8, with step in radians.
+     *
+     * @param radius largest distance the table will be used for, in pixels
+     */
+    public void resize(float radius) {
+        double minEntries = 2 * Math.PI * Math.sqrt(Math.max(radius, 1) / (8 * MAX_ERROR_PIXELS));
+        int size = (int) Math.ceil(minEntries / TICK_DIVISIONS) * TICK_DIVISIONS;
+        if (size == mSize) return;
+
+        mSize = size;
+        mEntriesPerDegree = size / DEGREES_PER_REVOLUTION;
+        // one extra entry so interpolation never needs to wrap
+        mSin = new float[size + 1];
+        for (int i = 0; i <= size; i++) {
+            mSin[i] = (float) Math.sin(2 * Math.PI * i / size);
+        }
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    /**
+     * @param degrees angle in degrees, any range
+     * @return interpolated sine of the angle
+     */
+    public float sinDegrees(float degrees) {
+        float position = degrees * mEntriesPerDegree;
+        int floor = (int) Math.floor(position);
+        float fraction = position - floor;
+        int index = floor % mSize;
+        if (index < 0) index += mSize;
+        float start = mSin[index];
+        return start + (mSin[index + 1] - start) * fraction;
+    }
+
+    /**
+     * @param degrees angle in degrees, any range
+     * @return interpolated cosine of the angle
+     */
+    public float cosDegrees(float degrees) {
+        return sinDegrees(degrees + DEGREES_PER_REVOLUTION / 4);
+    }
+
+    /**
+     * @param tickIndex tick from 0 to 59
+     * @return exact sine of the tick's angle
+     */
+    public float sinTick(int tickIndex) {
+        return mSin[getTickEntry(tickIndex)];
+    }
+
+    /**
+     * @param tickIndex tick from 0 to 59
+     * @return exact cosine of the tick's angle
+     */
+    public float cosTick(int tickIndex) {
+        return mSin[(getTickEntry(tickIndex) + mSize / 4) % mSize];
+    }
+
+    private int getTickEntry(int tickIndex) {
+        return (tickIndex % TICK_DIVISIONS) * (mSize / TICK_DIVISIONS);
+    }
+}
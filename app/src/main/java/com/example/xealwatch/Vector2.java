@@ -12,6 +12,17 @@ public class Vector2 {
         this.y = y;
     }
 
+    /**
+     * Sets this vector's values
+     *
+     * @param x new x value
+     * @param y new y value
+     */
+    public void set(float x, float y) {
+        this.x = x;
+        this.y = y;
+    }
+
     /**
      * Adds an offset to this vector's values
      *
@@ -0,0 +1,144 @@
+package com.example.xealwatch;
+
+import android.view.Choreographer;
+
+import java.io.PrintWriter;
+
+/**
+ * Paces interactive frames off display vsync with Choreographer instead of Handler delays,
+ * rendering every Nth vsync where N is the smallest divisor of the refresh rate that still
+ * moves the second hand at least the FrameRateGovernor's interval (i.e. one pixel) per frame.
+ * Between rendered frames it sleeps through the vsyncs it would skip rather than waking on each.
+ * Records how far each rendered frame landed from its target interval.
+ */
+public class VsyncFrameScheduler implements Choreographer.FrameCallback {
+
+    public interface FrameListener {
+        /**
+         * Called on the main thread at a vsync the scheduler decided to render.
+         *
+         * @param frameTimeNanos vsync time, in the System.nanoTime() timebase
+         */
+        void onFrame(long frameTimeNanos);
+    }
+
+    static final float DEFAULT_REFRESH_RATE = 60f;
+    private static final long NANOS_PER_SECOND = 1000L * 1000 * 1000;
+    private static final long NANOS_PER_MILLI = 1000 * 1000;
+
+    private final FrameRateGovernor mFrameRateGovernor;
+    private final FrameListener mListener;
+    private final LatencyHistogram mPacingError = new LatencyHistogram();
+    private Choreographer mChoreographer = null;
+    private final ChargingStatus mChargingStatus;
+    private long mVsyncPeriodNanos = Math.round(NANOS_PER_SECOND / DEFAULT_REFRESH_RATE);
+    private boolean mRunning = false;
+    private long mLastRenderNanos = -1;
+    private long mRenderedFrames = 0;
+    private long mSkippedVsyncs = 0;
+
+    /**
+     * @param frameRateGovernor supplies the interval the second hand needs between frames
+     * @param chargingStatus    charging status the battery-dependent frame rate is picked from
+     * @param listener          draws the frames
+     */
+    public VsyncFrameScheduler(FrameRateGovernor frameRateGovernor, ChargingStatus chargingStatus,
+                               FrameListener listener) {
+        mFrameRateGovernor = frameRateGovernor;
+        mChargingStatus = chargingStatus;
+        mListener = listener;
+    }
+
+    /**
+     * Call this when the display is known or its mode changes.
+     *
+     * @param refreshRate display refresh rate in Hz
+     */
+    public void setRefreshRate(float refreshRate) {
+        if (refreshRate <= 0) refreshRate = DEFAULT_REFRESH_RATE;
+        mVsyncPeriodNanos = Math.round(NANOS_PER_SECOND / refreshRate);
+    }
+
+    /**
+     * Starts rendering on vsync. Must be called on the main thread.
+     */
+    public void start() {
+        if (mRunning) return;
+        if (mChoreographer == null) mChoreographer = Choreographer.getInstance();
+        mRunning = true;
+        mLastRenderNanos = -1;
+        mChoreographer.postFrameCallback(this);
+    }
+
+    /**
+     * Stops rendering on vsync, e.g. when entering ambient or becoming invisible.
+     */
+    public void stop() {
+        if (!mRunning) return;
+        mRunning = false;
+        mChoreographer.removeFrameCallback(this);
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /* Number of vsyncs between rendered frames */
+    public int getDivisor() {
+        long intervalNanos = mFrameRateGovernor.getFrameIntervalMs(mChargingStatus) * NANOS_PER_MILLI;
+        // Round up, so the hand always moves at least as far per frame as the governor asks for.
+        return (int) Math.max(1, (intervalNanos + mVsyncPeriodNanos - 1) / mVsyncPeriodNanos);
+    }
+
+    /* Interval between rendered frames in milliseconds, rounded to the nearest millisecond */
+    public long getTargetIntervalMs() {
+        return Math.round(getDivisor() * mVsyncPeriodNanos / (double) NANOS_PER_MILLI);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mRunning) return;
+        int divisor = getDivisor();
+        long targetNanos = divisor * mVsyncPeriodNanos;
+
+        // Half a vsync of slack, so a callback that lands on the right vsync a little early
+        // isn't pushed back a whole period.
+        if (mLastRenderNanos >= 0 && frameTimeNanos - mLastRenderNanos < targetNanos - mVsyncPeriodNanos / 2) {
+            mChoreographer.postFrameCallback(this);
+            return;
+        }
+
+        if (mLastRenderNanos >= 0) {
+            long actualNanos = frameTimeNanos - mLastRenderNanos;
+            mPacingError.record(Math.abs(actualNanos - targetNanos));
+            mSkippedVsyncs += Math.max(0, Math.round(actualNanos / (double) mVsyncPeriodNanos) - 1);
+        }
+        mLastRenderNanos = frameTimeNanos;
+        mRenderedFrames++;
+        mFrameRateGovernor.recordWakeup(frameTimeNanos / NANOS_PER_MILLI);
+        mListener.onFrame(frameTimeNanos);
+
+        if (!mRunning) return;
+        // Sleep through all but the last vsync before the next frame is due.
+        long sleepMs = (targetNanos - mVsyncPeriodNanos - mVsyncPeriodNanos / 2) / NANOS_PER_MILLI;
+        if (sleepMs > 0) {
+            mChoreographer.postFrameCallbackDelayed(this, sleepMs);
+        } else {
+            mChoreographer.postFrameCallback(this);
+        }
+    }
+
+    public LatencyHistogram getPacingError() {
+        return mPacingError;
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        pw.print(prefix);
+        pw.println("vsyncPacing running=" + mRunning
+                + " vsyncPeriodUs=" + mVsyncPeriodNanos / 1000
+                + " divisor=" + getDivisor()
+                + " renderedFrames=" + mRenderedFrames
+                + " skippedVsyncs=" + mSkippedVsyncs);
+        mPacingError.dump(pw, prefix, "PACING_ERROR");
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.xealwatch;
+
+import android.app.Activity;
+import android.content.ActivityNotFoundException;
+import android.content.Intent;
+import android.graphics.Color;
+import android.net.Uri;
+import android.os.Bundle;
+import android.widget.Button;
+import android.widget.CompoundButton;
+import android.widget.RadioGroup;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * Settings for the watch face, opened from the watch face picker.
+ * A background photo is picked through the system document picker with ACTION_OPEN_DOCUMENT,
+ * and the read grant it comes with is persisted, so the engine can still open the photo
+ * after a reboot without any storage permission. Every other WatchSettings option is a
+ * switch or choice here too. Changes are saved to WatchSettings, which the engine listens to.
+ */
+public class WatchFaceConfigActivity extends Activity {
+    private static final int REQUEST_PICK_PHOTO = 1;
+    private static final String PHOTO_MIME_TYPE = "image/*";
+    /* In the order of the config_tint_names array */
+    private static final int[] TINT_COLORS = {Color.TRANSPARENT, 0xff4080ff, 0xffffb000, 0xff40c060, 0xffa060ff};
+
+    private WatchSettings mWatchSettings;
+    private TextView mBackgroundStatus;
+    private Button mUseBuiltInBackground;
+    private Button mBackgroundTint;
+    private String[] mTintNames;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_watch_face_config);
+        mWatchSettings = new WatchSettings(this);
+
+        mBackgroundStatus = findViewById(R.id.background_status);
+        mUseBuiltInBackground = findViewById(R.id.use_built_in_background);
+        findViewById(R.id.choose_photo).setOnClickListener(view -> pickPhoto());
+        mUseBuiltInBackground.setOnClickListener(view -> setBackgroundPhoto(null));
+        showBackground();
+
+        bindSwitch(R.id.crop_background, mWatchSettings.isCropBackgroundToSurface(),
+                mWatchSettings::setCropBackgroundToSurface);
+        bindSwitch(R.id.auto_hand_color, mWatchSettings.isAutoHandColor(), mWatchSettings::setAutoHandColor);
+        bindSwitch(R.id.dirty_region_mode, mWatchSettings.isDirtyRegionMode(), mWatchSettings::setDirtyRegionMode);
+        bindSwitch(R.id.vsync_pacing, mWatchSettings.isVsyncPacing(), mWatchSettings::setVsyncPacing);
+        bindSwitch(R.id.memory_budget_mode, mWatchSettings.isMemoryBudgetMode(),
+                mWatchSettings::setMemoryBudgetMode);
+
+        mTintNames = getResources().getStringArray(R.array.config_tint_names);
+        mBackgroundTint = findViewById(R.id.background_tint);
+        mBackgroundTint.setOnClickListener(view -> cycleTint());
+        showTint();
+
+        RadioGroup frameRateMode = findViewById(R.id.frame_rate_mode);
+        frameRateMode.check(getFrameRateButton(mWatchSettings.getFrameRateMode()));
+        frameRateMode.setOnCheckedChangeListener((group, checkedId) -> {
+            if (checkedId == R.id.frame_rate_tick) {
+                mWatchSettings.setFrameRateMode(FrameRateGovernor.Mode.TICK);
+            } else if (checkedId == R.id.frame_rate_eco) {
+                mWatchSettings.setFrameRateMode(FrameRateGovernor.Mode.ECO);
+            } else {
+                mWatchSettings.setFrameRateMode(FrameRateGovernor.Mode.SMOOTH);
+            }
+        });
+    }
+
+    private void bindSwitch(int id, boolean checked, Consumer<Boolean> setter) {
+        CompoundButton button = findViewById(id);
+        button.setChecked(checked);
+        button.setOnCheckedChangeListener((view, isChecked) -> setter.accept(isChecked));
+    }
+
+    private static int getFrameRateButton(FrameRateGovernor.Mode mode) {
+        switch (mode) {
+            case TICK:
+                return R.id.frame_rate_tick;
+            case ECO:
+                return R.id.frame_rate_eco;
+            default:
+                return R.id.frame_rate_smooth;
+        }
+    }
+
+    /* Steps to the next tint; a tint not in TINT_COLORS steps to the first one */
+    private void cycleTint() {
+        mWatchSettings.setBackgroundTintColor(TINT_COLORS[(getTintIndex() + 1) % TINT_COLORS.length]);
+        showTint();
+    }
+
+    private void showTint() {
+        int index = getTintIndex();
+        String name = index >= 0 ? mTintNames[index]
+                : String.format(Locale.US, "#%06x", mWatchSettings.getBackgroundTintColor() & 0xffffff);
+        mBackgroundTint.setText(getString(R.string.config_background_tint, name));
+    }
+
+    /* Index of the current tint in TINT_COLORS, or -1 if it isn't one of them */
+    private int getTintIndex() {
+        int tintColor = mWatchSettings.getBackgroundTintColor();
+        for (int i = 0; i < TINT_COLORS.length; i++) {
+            if (TINT_COLORS[i] == tintColor) return i;
+        }
+        return -1;
+    }
+
+    private void pickPhoto() {
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType(PHOTO_MIME_TYPE);
+        try {
+            startActivityForResult(intent, REQUEST_PICK_PHOTO);
+        } catch (ActivityNotFoundException e) {
+            Toast.makeText(this, R.string.config_no_photo_picker, Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode != REQUEST_PICK_PHOTO || resultCode != RESULT_OK || data == null) return;
+        Uri photo = data.getData();
+        if (photo == null) return;
+        /* Without this the grant ends with this activity, and the engine couldn't read the photo. */
+        try {
+            getContentResolver().takePersistableUriPermission(photo, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        } catch (SecurityException e) {
+            Toast.makeText(this, R.string.config_photo_not_kept, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        setBackgroundPhoto(photo);
+    }
+
+    /* Saves the new background, releasing the grant for the photo it replaces */
+    private void setBackgroundPhoto(Uri photo) {
+        Uri previous = mWatchSettings.getBackgroundPhotoUri();
+        mWatchSettings.setBackgroundPhotoUri(photo);
+        if (previous != null && !previous.equals(photo)) {
+            try {
+                getContentResolver().releasePersistableUriPermission(previous,
+                        Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            } catch (SecurityException e) {
+                // The grant is already gone, e.g. the photo was deleted.
+            }
+        }
+        showBackground();
+    }
+
+    private void showBackground() {
+        boolean hasPhoto = mWatchSettings.getBackgroundPhotoUri() != null;
+        mBackgroundStatus.setText(hasPhoto ? R.string.config_background_photo : R.string.config_background_built_in);
+        mUseBuiltInBackground.setEnabled(hasPhoto);
+    }
+}
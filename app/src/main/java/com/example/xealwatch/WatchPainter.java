@@ -4,8 +4,9 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Rect;
 
-import java.util.Calendar;
+import java.io.PrintWriter;
 
 
 public class WatchPainter {
@@ -20,6 +21,15 @@ public class WatchPainter {
     private static final float CENTER_GAP_AND_CIRCLE_RADIUS = 8f;
 
     private static final int NUM_SECONDS = 60;
+    /* values() clones its array on every call, so frame paths use this instead */
+    private static final int WATCH_STATE_COUNT = WatchState.values().length;
+
+    /* Offsets, one per minute, that walk the ambient face around a small square on burn-in devices */
+    private static final int BURN_IN_SHIFT = 4;
+    private static final int[][] BURN_IN_OFFSETS = {
+            {0, 0}, {BURN_IN_SHIFT, 0}, {BURN_IN_SHIFT, BURN_IN_SHIFT}, {0, BURN_IN_SHIFT},
+            {-BURN_IN_SHIFT, BURN_IN_SHIFT}, {-BURN_IN_SHIFT, 0}, {-BURN_IN_SHIFT, -BURN_IN_SHIFT},
+            {0, -BURN_IN_SHIFT}, {BURN_IN_SHIFT, -BURN_IN_SHIFT}};
 
     //Concrete hand lengths in pixels
     private float mSecondHandLength; //regular length
@@ -32,6 +42,52 @@ public class WatchPainter {
     private final CachedBackgrounds backgrounds = new CachedBackgrounds();
     private final DatePainter mDatePainter;
 
+    /* Non anti-aliased, pure white paints for low-bit ambient */
+    private final PaintBucket mLowBitPaintBucket = PaintBucket.createLowBitPaintBucket();
+    private final DatePainter mLowBitDatePainter = new DatePainter(mLowBitPaintBucket);
+    /* Black background with ticks and date for low-bit ambient */
+    private final LayerCache mLowBitBackground = new LayerCache();
+    /* Tags prebake jobs on the BackgroundBaker, so they can be cancelled on their own */
+    private final Object mPrebakeToken = new Object();
+
+    /*
+     * Layer holding the background, ticks, date and the hour/minute hands.
+     * It is re-rasterized at most once per minute; the second hand and center cap
+     * are stroked on top of it every frame.
+     */
+    private final LayerCache mHandsLayer = new LayerCache();
+
+    /* Background, ticks and date while charging; only rebuilt when the charge tick index changes */
+    private final LayerCache mChargingBackground = new LayerCache();
+
+    /* Area covered by the second hand and center cap in the last drawn frame */
+    private final Rect mLastSecondHandBounds = new Rect();
+    private final Rect mSecondHandBounds = new Rect();
+    private boolean mLastSecondHandBoundsValid = false;
+
+    /* Scratch vectors so the draw path doesn't allocate */
+    private final Vector2 mScratchStart = new Vector2();
+    private final Vector2 mScratchEnd = new Vector2();
+    private final Vector2 mHourStart = new Vector2();
+    private final Vector2 mHourEnd = new Vector2();
+    private final Vector2 mMinuteStart = new Vector2();
+    private final Vector2 mMinuteEnd = new Vector2();
+
+    private static final ChargingStatus NOT_CHARGING = new ChargingStatus();
+
+    private final TrigTable mTrigTable = new TrigTable();
+
+    private final Object mDecorationLock = new Object();
+    private BackgroundBaker mBackgroundBaker = null;
+    /* Set during a staged background load; see beginBackgroundLoad */
+    private boolean mBackgroundsLoading = false;
+    private BackgroundDiskCache mDiskCache = null;
+    /* Identifies the current source image, for the disk cache */
+    private volatile long mBackgroundSourceHash = 0;
+    private boolean mBurnInProtection = false;
+    private boolean mMemoryBudgetMode = false;
+    private RenderTelemetry mRenderTelemetry = null;
+
     public WatchPainter(PaintBucket paintBucket) {
         mBlackPaint.setColor(Color.BLACK);
         mPaintBucket = paintBucket;
@@ -58,6 +114,118 @@ public class WatchPainter {
         backgrounds.setRawBackground(backgroundBitmap);
         backgrounds.setRawGreyBackground(greyBackgroundBitmap);
         regenerateBackgrounds(date);
+        if (mMemoryBudgetMode) {
+            backgrounds.dropRawBackgrounds();
+        }
+        mBackgroundsLoading = false;
+        mChargingBackground.invalidate();
+        mHandsLayer.invalidate();
+    }
+
+    /**
+     * Starts a staged background load. Until finishBackgroundLoad, frames are drawn from
+     * whatever has arrived so far, starting with hands on black, instead of baking
+     * backgrounds on the drawing thread.
+     *
+     * @param sourceHash identifies the source image and how it is decoded, for the disk cache
+     */
+    public void beginBackgroundLoad(long sourceHash) {
+        cancelPrebakes();
+        mBackgroundsLoading = true;
+        mBackgroundSourceHash = sourceHash;
+        backgrounds.clear();
+        invalidateBackgroundLayers();
+    }
+
+    /**
+     * Shows a decoded background image with ticks and date drawn over it,
+     * while the baked backgrounds are still being built.
+     *
+     * @param backgroundBitmap background image in full colour, at surface size
+     */
+    public void setLoadedBackground(Bitmap backgroundBitmap) {
+        backgrounds.setRawBackground(backgroundBitmap);
+        invalidateBackgroundLayers();
+    }
+
+    /**
+     * Bakes backgrounds from loaded images. Called on the BackgroundBaker thread.
+     *
+     * @param backgroundBitmap       background image in full colour
+     * @param greyBackgroundBitmap   background image in greyscale, or null
+     * @param dimmedBackgroundBitmap background image dimmed for mute mode, or null
+     * @param date                   date to build backgrounds for
+     * @return the baked backgrounds, to pass to finishBackgroundLoad
+     */
+    public CachedBackgrounds.BakedBackgrounds bakeLoadedBackgrounds(Bitmap backgroundBitmap,
+                                                                     Bitmap greyBackgroundBitmap,
+                                                                     Bitmap dimmedBackgroundBitmap, int date) {
+        CachedBackgrounds.BakedBackgrounds baked = bakeBackgrounds(backgroundBitmap, greyBackgroundBitmap,
+                dimmedBackgroundBitmap, date);
+        storeBakedBackgrounds(baked);
+        return baked;
+    }
+
+    /**
+     * Sets where baked backgrounds are kept across process restarts.
+     *
+     * @param diskCache disk cache, or null to always bake
+     */
+    public void setDiskCache(BackgroundDiskCache diskCache) {
+        mDiskCache = diskCache;
+    }
+
+    /**
+     * Loads backgrounds baked by an earlier process. Called on the BackgroundBaker thread.
+     *
+     * @param date date to load backgrounds for
+     * @return the backgrounds, or null if they aren't on disk
+     */
+    public CachedBackgrounds.BakedBackgrounds loadBakedBackgrounds(int date) {
+        if (mDiskCache == null) return null;
+        return mDiskCache.load((int) center.x * 2, (int) center.y * 2, date,
+                mPaintBucket.getBackgroundColorHash(), mBackgroundSourceHash, mMemoryBudgetMode);
+    }
+
+    /* Writes baked backgrounds to the disk cache. Called on the BackgroundBaker thread. */
+    private void storeBakedBackgrounds(CachedBackgrounds.BakedBackgrounds baked) {
+        if (mDiskCache == null) return;
+        mDiskCache.store(baked, mPaintBucket.getBackgroundColorHash(), mBackgroundSourceHash, mMemoryBudgetMode);
+    }
+
+    /**
+     * Swaps in the baked backgrounds and ends the staged load.
+     *
+     * @param greyBackgroundBitmap   background image in greyscale, or null
+     * @param dimmedBackgroundBitmap background image dimmed for mute mode, or null
+     * @param baked                  backgrounds from bakeLoadedBackgrounds
+     */
+    public void finishBackgroundLoad(Bitmap greyBackgroundBitmap, Bitmap dimmedBackgroundBitmap,
+                                     CachedBackgrounds.BakedBackgrounds baked) {
+        backgrounds.setRawGreyBackground(greyBackgroundBitmap);
+        backgrounds.setRawDimmedBackground(dimmedBackgroundBitmap);
+        backgrounds.setPendingBackgrounds(baked);
+        backgrounds.promotePending(baked.date, (int) center.x * 2, (int) center.y * 2);
+        if (mMemoryBudgetMode && backgrounds.getCurrent() != null) {
+            backgrounds.dropRawBackgrounds();
+        }
+        mBackgroundsLoading = false;
+        invalidateBackgroundLayers();
+    }
+
+    /* Whether a staged background load is in progress */
+    public boolean isBackgroundLoading() {
+        return mBackgroundsLoading;
+    }
+
+    /* Whether a decoded background image has been set since the load began */
+    public boolean hasLoadedBackground() {
+        return backgrounds.getRawBackground() != null;
+    }
+
+    private void invalidateBackgroundLayers() {
+        mChargingBackground.invalidate();
+        invalidateLayers();
     }
 
     /**
@@ -66,16 +234,191 @@ public class WatchPainter {
      * @param date current date.
      */
     private void regenerateBackgrounds(int date) {
-        Bitmap backgroundBitmap = backgrounds.getRawBackground();
-        Bitmap greyBackgroundBitmap = backgrounds.getRawGreyBackground();
+        final CachedBackgrounds.BakedBackgrounds baked = bakeBackgrounds(date);
+        backgrounds.setCachedBackgrounds(baked);
+        if (mBackgroundBaker != null) {
+            mBackgroundBaker.schedule(() -> storeBakedBackgrounds(baked), 0);
+        }
+    }
+
+    /**
+     * Builds the color, grey and black backgrounds for a date.
+     * In memory budget mode, grey and black are stored as ALPHA_8 masks. Once the raw
+     * images have been dropped, or if the current backgrounds came from the disk cache,
+     * a new date is baked by redrawing the date box on a copy of the current backgrounds.
+     *
+     * @param date date to build backgrounds for
+     * @return the baked backgrounds
+     */
+    private CachedBackgrounds.BakedBackgrounds bakeBackgrounds(int date) {
+        int width = (int) center.x * 2;
+        int height = (int) center.y * 2;
+        CachedBackgrounds.BakedBackgrounds current = backgrounds.getCurrent();
+        if (backgrounds.getRawBackground() == null
+                && current != null && current.hasSize(width, height)) {
+            return rebakeDate(current, date);
+        }
+
+        return bakeBackgrounds(backgrounds.getRawBackground(), backgrounds.getRawGreyBackground(),
+                backgrounds.getRawDimmedBackground(), date);
+    }
+
+    /* Builds the color, grey, black and, if there's a dimmed image, dimmed backgrounds for a date */
+    private CachedBackgrounds.BakedBackgrounds bakeBackgrounds(Bitmap backgroundBitmap, Bitmap greyBackgroundBitmap,
+                                                               Bitmap dimmedBackgroundBitmap, int date) {
         Bitmap color = generateCachedBackground(backgroundBitmap, WatchState.FULL, date);
+        Bitmap dimmed = dimmedBackgroundBitmap == null ? null
+                : generateCachedBackground(dimmedBackgroundBitmap, WatchState.FULL, date);
         Bitmap greyscale = generateCachedBackground(greyBackgroundBitmap, WatchState.GRAY, date);
         Bitmap black = generateCachedBackground(null, WatchState.BLACK, date);
-        backgrounds.setCachedBackgrounds(color, greyscale, black, date);
+        if (mMemoryBudgetMode) {
+            greyscale = toMask(greyscale);
+            black = toMask(black);
+        }
+        return new CachedBackgrounds.BakedBackgrounds(color, greyscale, black, dimmed, date);
+    }
+
+    /* Converts a baked greyscale background to an ALPHA_8 mask, freeing the original */
+    private static Bitmap toMask(Bitmap bitmap) {
+        Bitmap mask = LuminanceMask.fromBitmap(bitmap);
+        bitmap.recycle();
+        return mask;
+    }
+
+    /* Copies baked backgrounds and redraws only their date box */
+    private CachedBackgrounds.BakedBackgrounds rebakeDate(CachedBackgrounds.BakedBackgrounds source, int date) {
+        return new CachedBackgrounds.BakedBackgrounds(
+                rebakeDate(source.color, WatchState.FULL, date),
+                rebakeDate(source.greyscale, WatchState.GRAY, date),
+                rebakeDate(source.black, WatchState.BLACK, date),
+                source.dimmed == null ? null : rebakeDate(source.dimmed, WatchState.FULL, date),
+                date);
+    }
+
+    private Bitmap rebakeDate(Bitmap source, WatchState ws, int date) {
+        Bitmap result = source.copy(source.getConfig(), true);
+        synchronized (mDecorationLock) {
+            if (!LuminanceMask.isMask(result)) {
+                mDatePainter.DrawDate(new Canvas(result), date);
+                return result;
+            }
+            // Masks can't be painted on directly; draw the date box in colour and convert it.
+            Rect dateBounds = new Rect();
+            mDatePainter.getDateBounds(dateBounds);
+            Bitmap dateBox = Bitmap.createBitmap(dateBounds.width(), dateBounds.height(), Bitmap.Config.ARGB_8888);
+            Canvas dateCanvas = new Canvas(dateBox);
+            dateCanvas.drawColor(Color.BLACK);
+            dateCanvas.translate(-dateBounds.left, -dateBounds.top);
+            mDatePainter.DrawDate(dateCanvas, date);
+            LuminanceMask.writeLuminance(dateBox, result, dateBounds.left, dateBounds.top);
+            dateBox.recycle();
+        }
+        return result;
+    }
+
+    /**
+     * In mute mode the dimmed colour backgrounds are drawn, where they have been built.
+     *
+     * @param muteMode whether mute mode is on
+     */
+    public void setMuteMode(boolean muteMode) {
+        backgrounds.setMuteMode(muteMode);
+        invalidateBackgroundLayers();
+    }
+
+    /**
+     * In memory budget mode the grey and black backgrounds are stored as masks,
+     * raw images are dropped once baked, and the charging layer is freed when not charging.
+     *
+     * @param memoryBudgetMode whether to use memory budget mode
+     */
+    public void setMemoryBudgetMode(boolean memoryBudgetMode) {
+        mMemoryBudgetMode = memoryBudgetMode;
+    }
+
+    /**
+     * @param renderTelemetry where to record phase timings, or null
+     */
+    public void setRenderTelemetry(RenderTelemetry renderTelemetry) {
+        mRenderTelemetry = renderTelemetry;
+    }
+
+    /**
+     * Prints how often each cache has been rebuilt.
+     *
+     * @param pw     writer to print to
+     * @param prefix line prefix
+     */
+    public void dumpCacheStats(PrintWriter pw, String prefix) {
+        pw.print(prefix);
+        pw.println("backgroundRebuilds=" + backgrounds.getRebuildCount()
+                + " backgroundPrebakesUsed=" + backgrounds.getPromotionCount()
+                + " handsLayerRedraws=" + mHandsLayer.getRedrawCount()
+                + " chargingLayerRedraws=" + mChargingBackground.getRedrawCount()
+                + " lowBitLayerRedraws=" + mLowBitBackground.getRedrawCount()
+                + " cacheBytes=" + getCacheByteCount());
+        if (mDiskCache != null) {
+            pw.print(prefix);
+            pw.println(mDiskCache.getStats());
+        }
+    }
+
+    /**
+     * @return bytes held by cached backgrounds and layers
+     */
+    public long getCacheByteCount() {
+        return backgrounds.getByteCount() + mHandsLayer.getByteCount() + mChargingBackground.getByteCount()
+                + mLowBitBackground.getByteCount();
+    }
+
+    /**
+     * Drops prebakes that haven't started yet. Other BackgroundBaker jobs, like disk cache
+     * writes, still run.
+     */
+    public void cancelPrebakes() {
+        if (mBackgroundBaker != null) {
+            mBackgroundBaker.cancel(mPrebakeToken);
+        }
+    }
+
+    /**
+     * @param date current date
+     * @return whether the cached backgrounds were built for a different date
+     */
+    public boolean backgroundsRequireRebuild(int date) {
+        return backgrounds.cacheRequireRebuild(date);
+    }
+
+    /**
+     * Sets the worker used to build backgrounds ahead of time.
+     *
+     * @param backgroundBaker worker, or null to always build on the drawing thread
+     */
+    public void setBackgroundBaker(BackgroundBaker backgroundBaker) {
+        mBackgroundBaker = backgroundBaker;
+    }
+
+    /**
+     * Builds the backgrounds for a date on the BackgroundBaker thread after a delay,
+     * or loads them from the disk cache. The first frame that sees that date swaps them in instead of building them itself.
+     *
+     * @param date    date to build backgrounds for
+     * @param delayMs delay in milliseconds
+     */
+    public void prebakeBackgrounds(final int date, long delayMs) {
+        if (mBackgroundBaker == null) return;
+        mBackgroundBaker.schedule(() -> {
+            CachedBackgrounds.BakedBackgrounds baked = loadBakedBackgrounds(date);
+            if (baked == null) {
+                baked = bakeBackgrounds(date);
+                storeBakedBackgrounds(baked);
+            }
+            backgrounds.setPendingBackgrounds(baked);
+        }, mPrebakeToken, delayMs);
     }
 
     /* generates a cached background by drawing the raw bitmap, and then the ticks and date */
-    private Bitmap generateCachedBackground(Bitmap backgroundImage, WatchState ws, int date) {
+    Bitmap generateCachedBackground(Bitmap backgroundImage, WatchState ws, int date) {
         int width = (int) center.x * 2;
         int height = (int) center.y * 2;
 
@@ -85,8 +428,7 @@ public class WatchPainter {
             writingCanvas.drawColor(Color.BLACK);
         else
             writingCanvas.drawBitmap(backgroundImage, 0, 0, mBlackPaint);
-        drawTicks(writingCanvas, new ChargingStatus(), ws);
-        mDatePainter.DrawDate(writingCanvas, date);
+        drawTicksAndDate(writingCanvas, NOT_CHARGING, ws, date);
         return result;
     }
 
@@ -96,12 +438,28 @@ public class WatchPainter {
         return Math.round(chargingStatus.percent / 100f * NUM_SECONDS);
     }
 
-    /* Draws a single tick */
-    private void drawTick(Canvas canvas, float tickRadius, float endRadius, int tickIndex, BinaryPaint paint) {
-        float tickRotationDegrees = (float) (tickIndex * 360 / NUM_SECONDS);
-        Vector2 innerPos = rotateCoordinate(tickRotationDegrees, tickRadius);
-        Vector2 outerPos = rotateCoordinate(tickRotationDegrees, endRadius);
-        canvas.drawLine(innerPos.x, innerPos.y, outerPos.x, outerPos.y, paint);
+    /**
+     * Packs the part of the charging status that is drawn (the charging flag and how many
+     * ticks are lit) into one value, so battery updates that don't change it can be ignored.
+     *
+     * @param chargingStatus current charging status
+     * @return 0 when not charging, otherwise 1 + the number of lit ticks
+     */
+    public int getChargingDisplayState(ChargingStatus chargingStatus) {
+        if (!chargingStatus.isCharging) return 0;
+        return 1 + Math.min(getStopChargingIndex(chargingStatus), NUM_SECONDS);
+    }
+
+    /*
+     * Draws ticks and then the date.
+     * Backgrounds are also baked on the BackgroundBaker thread, and both of these
+     * use the tick geometry and the date painter's scratch rects, so they are serialized here.
+     */
+    private void drawTicksAndDate(Canvas canvas, ChargingStatus chargingStatus, WatchState ws, int date) {
+        synchronized (mDecorationLock) {
+            drawTicks(canvas, mPaintBucket, chargingStatus, ws);
+            mDatePainter.DrawDate(canvas, date);
+        }
     }
 
     /*
@@ -111,93 +469,180 @@ public class WatchPainter {
      * creates them on top of the photo.
      *
      * This will also color the ticks in green based on charging status.
+     * Tick geometry is precomputed in updateSurface, so this is a handful of drawLines calls.
      */
-    private void drawTicks(Canvas canvas, ChargingStatus chargingStatus, WatchState ws) {
+    void drawTicks(Canvas canvas, PaintBucket paintBucket, ChargingStatus chargingStatus, WatchState ws) {
         // Set ticks to green if we're charging.
-        int stopChargingIndex = getStopChargingIndex(chargingStatus);
-        // Draw black afterwards if we're in ambient.
-        boolean drawBlack = ws.ordinal() < WatchState.FULL.ordinal() && !chargingStatus.isCharging;
-        mPaintBucket.setTicksActive();
-
-        for (int tickIndex = 0; tickIndex < NUM_SECONDS; tickIndex++) {
-            if (tickIndex >= stopChargingIndex) {
-                mPaintBucket.setTicksInActive();
-            }
-            if (tickIndex == 0) {
-                drawTwelveOClock(canvas, drawBlack, mPaintBucket);
-                continue;
-            }
-            boolean isMajor = tickIndex % 5 == 0;
-            if (isMajor) {
-                drawTick(canvas, tickData.bigTickRadius, center.x,
-                        tickIndex, mPaintBucket.getBigTickPaint());
-                // overdraw a black radius
-                if (drawBlack) {
-                    drawTick(canvas, tickData.bigInsetRadius, center.x,
-                            tickIndex, mPaintBucket.getBigTickInsetPaint());
-                }
-            } else {
-                drawTick(canvas, tickData.smallTickRadius, tickData.endSmallTickRadius,
-                        tickIndex, mPaintBucket.getSmallTickPaint());
+        int stopChargingIndex = Math.min(getStopChargingIndex(chargingStatus), NUM_SECONDS);
+        /*
+         * Draw black afterwards if we're in ambient, but only on ticks that aren't lit for charging.
+         * Low-bit ambient draws lit and unlit ticks in the same white, so filled against
+         * hollow big ticks is the only thing that shows charge progress there.
+         */
+        boolean drawBlack = ws.ordinal() < WatchState.FULL.ordinal();
+
+        if (stopChargingIndex > 0) {
+            drawTickRange(canvas, paintBucket.getPaints(ws, true), 0, stopChargingIndex, false);
+        }
+        drawTickRange(canvas, paintBucket.getPaints(ws, false), stopChargingIndex, NUM_SECONDS, drawBlack);
+    }
+
+    /* Draws the ticks with index in [fromTick, toTick) using the given paints */
+    private void drawTickRange(Canvas canvas, PaintBucket.PaintSet paints, int fromTick, int toTick, boolean drawBlack) {
+        if (fromTick >= toTick) return;
+        if (fromTick == 0) {
+            mTwelveOClockLines.draw(canvas, 0, 1, paints.bigTick);
+            // overdraw a black radius
+            if (drawBlack) {
+                mTwelveOClockInsetLines.draw(canvas, 0, 1, paints.bigTickInset);
             }
         }
-        // Fix bug where these are left active
-        if (stopChargingIndex >= NUM_SECONDS - 1) {
-            mPaintBucket.setTicksInActive();
+        mSmallTickLines.draw(canvas, fromTick, toTick, paints.smallTick);
+        mBigTickLines.draw(canvas, fromTick, toTick, paints.bigTick);
+        // overdraw a black radius
+        if (drawBlack) {
+            mBigTickInsetLines.draw(canvas, fromTick, toTick, paints.bigTickInset);
         }
     }
 
     /**
-     * Draws the Twelve o'clock symbol using two lines.
-     *
-     * @param canvas      canvas
-     * @param drawBlack   whether to overlay in black
-     * @param paintBucket paintBucket to draw with
+     * Line endpoints for a group of ticks sharing one paint, stored flat for Canvas.drawLines.
+     * Lines are stored in tick order, so any range of ticks is a contiguous slice.
      */
-    private void drawTwelveOClock(Canvas canvas, boolean drawBlack, PaintBucket paintBucket) {
-        Vector2 innerPos = rotateCoordinate(0, tickData.bigTickRadius - 10);
-        Vector2 outerPos = rotateCoordinate(0, center.x);
-        drawThickTick(canvas, paintBucket.getBigTickPaint(), innerPos, outerPos, 0, 1);
+    private static class TickLines {
+        private final float[] mPoints = new float[NUM_SECONDS * 2 * 4];
+        /* mLinesBefore[i] is how many lines belong to ticks before tick i */
+        private final int[] mLinesBefore = new int[NUM_SECONDS + 1];
+        private int mLineCount = 0;
+        private int mCurrentTick = 0;
+
+        void clear() {
+            mLineCount = 0;
+            mCurrentTick = 0;
+            mLinesBefore[0] = 0;
+        }
 
-        // overdraw a black radius
-        if (drawBlack) {
-            innerPos = rotateCoordinate(0, tickData.bigInsetRadius - 10);
-            outerPos = rotateCoordinate(0, center.x);
-            drawThickTick(canvas, paintBucket.getBigTickInsetPaint(), innerPos, outerPos, -1, 3);
+        /* Adds a line for tickIndex. Ticks must be added in increasing order. */
+        void addLine(int tickIndex, Vector2 start, Vector2 end) {
+            advanceTo(tickIndex);
+            int offset = mLineCount * 4;
+            mPoints[offset] = start.x;
+            mPoints[offset + 1] = start.y;
+            mPoints[offset + 2] = end.x;
+            mPoints[offset + 3] = end.y;
+            mLineCount++;
+        }
+
+        /* Call once all lines have been added */
+        void finish() {
+            advanceTo(NUM_SECONDS);
+        }
+
+        private void advanceTo(int tickIndex) {
+            while (mCurrentTick < tickIndex) {
+                mCurrentTick++;
+                mLinesBefore[mCurrentTick] = mLineCount;
+            }
+        }
+
+        /* Draws the lines of ticks in [fromTick, toTick) in one call */
+        void draw(Canvas canvas, int fromTick, int toTick, Paint paint) {
+            int first = mLinesBefore[fromTick];
+            int count = mLinesBefore[toTick] - first;
+            if (count > 0) {
+                canvas.drawLines(mPoints, first * 4, count * 4, paint);
+            }
         }
     }
 
+    private final TickLines mSmallTickLines = new TickLines();
+    private final TickLines mBigTickLines = new TickLines();
+    private final TickLines mBigTickInsetLines = new TickLines();
+    private final TickLines mTwelveOClockLines = new TickLines();
+    private final TickLines mTwelveOClockInsetLines = new TickLines();
+
+    /* Computes all tick endpoints for the current surface */
+    private void buildTickGeometry() {
+        mSmallTickLines.clear();
+        mBigTickLines.clear();
+        mBigTickInsetLines.clear();
+        for (int tickIndex = 1; tickIndex < NUM_SECONDS; tickIndex++) {
+            boolean isMajor = tickIndex % 5 == 0;
+            if (isMajor) {
+                addTickLine(mBigTickLines, tickIndex, tickData.bigTickRadius, center.x);
+                addTickLine(mBigTickInsetLines, tickIndex, tickData.bigInsetRadius, center.x);
+            } else {
+                addTickLine(mSmallTickLines, tickIndex, tickData.smallTickRadius, tickData.endSmallTickRadius);
+            }
+        }
+        mSmallTickLines.finish();
+        mBigTickLines.finish();
+        mBigTickInsetLines.finish();
+
+        PaintBucket.PaintSet paints = mPaintBucket.getPaints(WatchState.FULL, false);
+        buildTwelveOClock(mTwelveOClockLines, tickData.bigTickRadius - 10,
+                paints.bigTick.getStrokeWidth(), 0, 1);
+        buildTwelveOClock(mTwelveOClockInsetLines, tickData.bigInsetRadius - 10,
+                paints.bigTickInset.getStrokeWidth(), -1, 3);
+    }
+
+    /* Adds a single tick */
+    private void addTickLine(TickLines lines, int tickIndex, float tickRadius, float endRadius) {
+        Vector2 innerPos = rotateTickCoordinate(tickIndex, tickRadius, mScratchStart);
+        Vector2 outerPos = rotateTickCoordinate(tickIndex, endRadius, mScratchEnd);
+        lines.addLine(tickIndex, innerPos, outerPos);
+    }
+
     /**
-     * Draws two ticks next to each other.
+     * Builds the Twelve o'clock symbol as two lines next to each other.
      *
-     * @param canvas      canvas to draw on
-     * @param paint       paint to draw with
-     * @param innerPos    start of line
-     * @param outerPos    end of line
+     * @param lines       lines to add to
+     * @param tickRadius  start distance from centre
+     * @param tickWidth   stroke width of the paint it will be drawn with
+     * @param leftOffset  adds an additional few pixels to the left tick
      * @param rightOffset adds an additional few pixels to the right tick
      */
-    private void drawThickTick(Canvas canvas, BinaryPaint paint, Vector2 innerPos, Vector2 outerPos, float leftOffset, float rightOffset) {
-        float tickWidth = paint.getStrokeWidth();
+    private void buildTwelveOClock(TickLines lines, float tickRadius, float tickWidth, float leftOffset, float rightOffset) {
+        lines.clear();
+        Vector2 innerPos = rotateTickCoordinate(0, tickRadius, mScratchStart);
+        Vector2 outerPos = rotateTickCoordinate(0, center.x, mScratchEnd);
         innerPos.x -= tickWidth * 0.5 - leftOffset;
         outerPos.x -= tickWidth * 0.5 - leftOffset;
-        canvas.drawLine(innerPos.x, innerPos.y, outerPos.x, outerPos.y, paint);
+        lines.addLine(0, innerPos, outerPos);
         innerPos.x += tickWidth + rightOffset;
         outerPos.x += tickWidth + rightOffset;
-        canvas.drawLine(innerPos.x, innerPos.y, outerPos.x, outerPos.y, paint);
+        lines.addLine(0, innerPos, outerPos);
+        lines.finish();
     }
 
     /**
      * Returns a coordinate rotated around the circle.
+     * Zero degrees is twelve o'clock, increasing clockwise.
      *
      * @param rotationDegrees how many degrees to rotate
      * @param distance        distance from centre
-     * @return a vector2 representing a point rotated around the center of the screen.
+     * @param result          vector to write the result into
+     * @return result, set to a point rotated around the center of the screen.
      */
-    private Vector2 rotateCoordinate(float rotationDegrees, float distance) {
-        rotationDegrees -= 90;
-        rotationDegrees = (float) Math.toRadians(rotationDegrees);
-        Vector2 result = new Vector2((float) Math.cos(rotationDegrees) * distance,
-                (float) Math.sin(rotationDegrees) * distance);
+    private Vector2 rotateCoordinate(float rotationDegrees, float distance, Vector2 result) {
+        // cos(a - 90) = sin(a), sin(a - 90) = -cos(a)
+        result.set(mTrigTable.sinDegrees(rotationDegrees) * distance,
+                -mTrigTable.cosDegrees(rotationDegrees) * distance);
+        result.addOffset(center);
+        return result;
+    }
+
+    /**
+     * Same as rotateCoordinate, but for a tick index, which maps exactly onto the trig table.
+     *
+     * @param tickIndex tick from 0 to 59
+     * @param distance  distance from centre
+     * @param result    vector to write the result into
+     * @return result, set to the tick's point at the given distance.
+     */
+    private Vector2 rotateTickCoordinate(int tickIndex, float distance, Vector2 result) {
+        result.set(mTrigTable.sinTick(tickIndex) * distance,
+                -mTrigTable.cosTick(tickIndex) * distance);
         result.addOffset(center);
         return result;
     }
@@ -211,61 +656,279 @@ public class WatchPainter {
      */
     public void drawBackground(Canvas canvas, WatchState ws, ChargingStatus chargeStatus, int date) {
 
-        // Draw the raw background, then draw the ticks manually
+        // Draw the raw background, then draw the ticks manually; cached until charge progress changes
         if (chargeStatus.isCharging) {
-            backgrounds.drawRawBackground(canvas, ws);
-            drawTicks(canvas, chargeStatus, ws);
-            mDatePainter.DrawDate(canvas, date);
+            long key = getChargingBackgroundKey(ws, chargeStatus, date);
+            if (mChargingBackground.requiresRedraw(key)) {
+                Canvas chargingCanvas = mChargingBackground.beginDraw(key);
+                backgrounds.drawRawBackground(chargingCanvas, ws);
+                drawTicksAndDate(chargingCanvas, chargeStatus, ws, date);
+            }
+            mChargingBackground.draw(canvas);
         } else { // draw the background including ticks from cache.
-            if (backgrounds.cacheRequireRebuild(date)) {
+            if (backgrounds.cacheRequireRebuild(date)
+                    && !backgrounds.promotePending(date, (int) center.x * 2, (int) center.y * 2)) {
+                if (mBackgroundsLoading) {
+                    drawUnbakedBackground(canvas, ws, date);
+                    return;
+                }
                 regenerateBackgrounds(date);
             }
+            if (mMemoryBudgetMode) {
+                mChargingBackground.release();
+            }
             backgrounds.drawBackground(canvas, ws);
         }
     }
 
+    /* Draws whatever raw image has loaded so far, or black, with the ticks and date over it */
+    private void drawUnbakedBackground(Canvas canvas, WatchState ws, int date) {
+        Bitmap background = backgrounds.getRawBackground(ws);
+        if (background == null) {
+            canvas.drawColor(Color.BLACK);
+        } else {
+            canvas.drawBitmap(background, 0, 0, mBlackPaint);
+        }
+        drawTicksAndDate(canvas, NOT_CHARGING, ws, date);
+    }
+
+    /**
+     * Draws a complete frame by compositing the cached hands layer and the second hand.
+     * The hands layer is only re-rasterized when the minute, date, watch state or
+     * charging progress changes.
+     *
+     * @param canvas       Canvas to draw on
+     * @param timeAngles   Current time
+     * @param ws           Current watchState
+     * @param chargeStatus if the watch is charging
+     * @param date         current date
+     */
+    public void drawFrame(Canvas canvas, TimeAngles timeAngles, WatchState ws, ChargingStatus chargeStatus, int date) {
+        long key = getHandsLayerKey(timeAngles, ws, chargeStatus, date);
+        if (mHandsLayer.requiresRedraw(key)) {
+            Canvas layerCanvas = mHandsLayer.beginDraw(key);
+            long backgroundStart = System.nanoTime();
+            drawBackground(layerCanvas, ws, chargeStatus, date);
+            if (mRenderTelemetry != null) {
+                mRenderTelemetry.recordPhase(RenderTelemetry.Phase.BACKGROUND, System.nanoTime() - backgroundStart);
+            }
+            drawHourMinuteHands(layerCanvas, mPaintBucket,
+                    timeAngles.getMinuteResolutionHourDegrees(),
+                    timeAngles.getMinuteResolutionMinuteDegrees(),
+                    ws);
+        }
+        long watchFaceStart = System.nanoTime();
+        int burnInSaveCount = beginBurnInShift(canvas, timeAngles, ws);
+        mHandsLayer.draw(canvas);
+        drawSecondHandLayer(canvas, timeAngles, ws);
+        endBurnInShift(canvas, burnInSaveCount);
+        if (mRenderTelemetry != null) {
+            mRenderTelemetry.recordPhase(RenderTelemetry.Phase.WATCH_FACE, System.nanoTime() - watchFaceStart);
+        }
+
+        mLastSecondHandBoundsValid = ws == WatchState.FULL;
+        if (mLastSecondHandBoundsValid) {
+            getSecondHandBounds(timeAngles, mLastSecondHandBounds);
+        }
+    }
+
+    /**
+     * Computes the region that must be repainted to move the second hand from where it was
+     * last drawn to where it is now. Only the hands layer and second hand are drawn, so
+     * this is only possible when the hands layer itself does not need to change.
+     *
+     * @param timeAngles   Current time
+     * @param ws           Current watchState
+     * @param chargeStatus if the watch is charging
+     * @param date         current date
+     * @param outRegion    receives the region to repaint
+     * @return false if a full frame must be drawn instead
+     */
+    public boolean getDirtyRegion(TimeAngles timeAngles, WatchState ws, ChargingStatus chargeStatus,
+                                  int date, Rect outRegion) {
+        if (ws != WatchState.FULL || !mLastSecondHandBoundsValid) return false;
+        if (mHandsLayer.requiresRedraw(getHandsLayerKey(timeAngles, ws, chargeStatus, date))) {
+            return false;
+        }
+        getSecondHandBounds(timeAngles, mSecondHandBounds);
+        outRegion.set(mLastSecondHandBounds);
+        outRegion.union(mSecondHandBounds);
+        return true;
+    }
+
+    /**
+     * Bounding box of the second hand (including its round caps) and the center cap.
+     *
+     * @param timeAngles Current time
+     * @param outBounds receives the bounds
+     */
+    private void getSecondHandBounds(TimeAngles timeAngles, Rect outBounds) {
+        final float secondsRotation = timeAngles.getSecondDegrees();
+        Vector2 secondStart = rotateCoordinate(180 + secondsRotation, mSecondHandLength2, mScratchStart);
+        Vector2 secondEnd = rotateCoordinate(secondsRotation, mSecondHandLength, mScratchEnd);
+
+        // half the stroke for the caps, plus a pixel for anti-aliasing
+        float halfStroke = PaintBucket.SECOND_STROKE_WIDTH / 2f + 1;
+        float left = Math.min(Math.min(secondStart.x, secondEnd.x) - halfStroke,
+                center.x - CENTER_GAP_AND_CIRCLE_RADIUS - 1);
+        float top = Math.min(Math.min(secondStart.y, secondEnd.y) - halfStroke,
+                center.y - CENTER_GAP_AND_CIRCLE_RADIUS - 1);
+        float right = Math.max(Math.max(secondStart.x, secondEnd.x) + halfStroke,
+                center.x + CENTER_GAP_AND_CIRCLE_RADIUS + 1);
+        float bottom = Math.max(Math.max(secondStart.y, secondEnd.y) + halfStroke,
+                center.y + CENTER_GAP_AND_CIRCLE_RADIUS + 1);
+        outBounds.set((int) Math.floor(left), (int) Math.floor(top),
+                (int) Math.ceil(right), (int) Math.ceil(bottom));
+    }
+
+    /**
+     * Draws a frame for low-bit ambient mode: a cached black background, then the hour and
+     * minute hands and center cap, all without anti-aliasing so every pixel is black or white.
+     * This is drawn directly rather than through the hands layer, since it only runs
+     * once per minute.
+     *
+     * @param canvas       Canvas to draw on
+     * @param timeAngles   Current time
+     * @param chargeStatus if the watch is charging
+     * @param date         current date
+     */
+    public void drawLowBitFrame(Canvas canvas, TimeAngles timeAngles, ChargingStatus chargeStatus, int date) {
+        long key = getChargingBackgroundKey(WatchState.BLACK, chargeStatus, date);
+        if (mLowBitBackground.requiresRedraw(key)) {
+            Canvas backgroundCanvas = mLowBitBackground.beginDraw(key);
+            backgroundCanvas.drawColor(Color.BLACK);
+            synchronized (mDecorationLock) {
+                drawTicks(backgroundCanvas, mLowBitPaintBucket, chargeStatus, WatchState.BLACK);
+                mLowBitDatePainter.DrawDate(backgroundCanvas, date);
+            }
+        }
+        int burnInSaveCount = beginBurnInShift(canvas, timeAngles, WatchState.BLACK);
+        mLowBitBackground.draw(canvas);
+        drawHourMinuteHands(canvas, mLowBitPaintBucket,
+                timeAngles.getMinuteResolutionHourDegrees(),
+                timeAngles.getMinuteResolutionMinuteDegrees(),
+                WatchState.BLACK);
+        canvas.drawCircle(center.x, center.y, CENTER_GAP_AND_CIRCLE_RADIUS,
+                mLowBitPaintBucket.getPaints(WatchState.BLACK, false).smallTick);
+        endBurnInShift(canvas, burnInSaveCount);
+    }
+
+    /**
+     * On burn-in devices, ambient frames are shifted by a few pixels every minute, so no pixel
+     * stays lit for long. Only the cached layers are translated when composited; nothing is
+     * re-rasterized for the shift.
+     *
+     * @param burnInProtection whether the device needs burn-in protection
+     */
+    public void setBurnInProtection(boolean burnInProtection) {
+        mBurnInProtection = burnInProtection;
+    }
+
+    /*
+     * Translates the canvas by this minute's burn-in offset in ambient, after clearing it so
+     * the edge uncovered by the shift is black.
+     * Returns the save count to pass to endBurnInShift, or -1 if nothing was shifted.
+     */
+    private int beginBurnInShift(Canvas canvas, TimeAngles timeAngles, WatchState ws) {
+        if (!mBurnInProtection || ws == WatchState.FULL) return -1;
+        int[] offset = BURN_IN_OFFSETS[timeAngles.getMinuteOfDay() % BURN_IN_OFFSETS.length];
+        canvas.drawColor(Color.BLACK);
+        int saveCount = canvas.save();
+        canvas.translate(offset[0], offset[1]);
+        return saveCount;
+    }
+
+    private void endBurnInShift(Canvas canvas, int saveCount) {
+        if (saveCount >= 0) {
+            canvas.restoreToCount(saveCount);
+        }
+    }
+
+    /* Packs everything the charging background depends on into one key */
+    private long getChargingBackgroundKey(WatchState ws, ChargingStatus chargeStatus, int date) {
+        long key = date;
+        key = key * (NUM_SECONDS + 1) + getStopChargingIndex(chargeStatus);
+        key = key * WATCH_STATE_COUNT + ws.ordinal();
+        return key;
+    }
+
+    /* Packs everything the hands layer depends on into one key */
+    private long getHandsLayerKey(TimeAngles timeAngles, WatchState ws, ChargingStatus chargeStatus, int date) {
+        long key = date;
+        key = key * (NUM_SECONDS + 1) + getStopChargingIndex(chargeStatus);
+        key = key * WATCH_STATE_COUNT + ws.ordinal();
+        key = key * TimeAngles.MINUTES_PER_DAY + timeAngles.getMinuteOfDay();
+        return key;
+    }
+
+    /**
+     * Forces cached layers to be redrawn, e.g. after paint colors or alpha change.
+     */
+    public void invalidateLayers() {
+        mHandsLayer.invalidate();
+        mLastSecondHandBoundsValid = false;
+    }
+
     /**
      * Draws the hands and date
      *
      * @param canvas   Canvas to draw on
-     * @param calendar Current Date/Time
+     * @param timeAngles Current time
      * @param ws       Current watchState
      */
-    public void drawWatchFace(Canvas canvas, Calendar calendar, WatchState ws) {
+    public void drawWatchFace(Canvas canvas, TimeAngles timeAngles, WatchState ws) {
         /*
          * These calculations reflect the rotation in degrees per unit of time, e.g.,
          * 360 / 60 = 6 and 360 / 12 = 30.
          */
-        final float secondsRotation = TimeDegrees.GetDegreesValue(Calendar.SECOND, calendar);
-        final float minutesRotation = TimeDegrees.GetDegreesValue(Calendar.MINUTE, calendar);
-        final float hoursRotation = TimeDegrees.GetDegreesValue(Calendar.HOUR, calendar);
+        final float minutesRotation = timeAngles.getMinuteDegrees();
+        final float hoursRotation = timeAngles.getHourDegrees();
+
+        drawHourMinuteHands(canvas, mPaintBucket, hoursRotation, minutesRotation, ws);
+        drawSecondHandLayer(canvas, timeAngles, ws);
+    }
 
-        Vector2 hourStart = rotateCoordinate(hoursRotation, CENTER_GAP_AND_CIRCLE_RADIUS);
-        Vector2 hourEnd = rotateCoordinate(hoursRotation, mHourHandLength);
+    /* Draws the hour and minute hands, with black insets when not in full colour */
+    private void drawHourMinuteHands(Canvas canvas, PaintBucket paintBucket, float hoursRotation, float minutesRotation, WatchState ws) {
+        Vector2 hourStart = rotateCoordinate(hoursRotation, CENTER_GAP_AND_CIRCLE_RADIUS, mHourStart);
+        Vector2 hourEnd = rotateCoordinate(hoursRotation, mHourHandLength, mHourEnd);
 
-        Vector2 minuteStart = rotateCoordinate(minutesRotation, CENTER_GAP_AND_CIRCLE_RADIUS);
-        Vector2 minuteEnd = rotateCoordinate(minutesRotation, mMinuteHandLength);
+        Vector2 minuteStart = rotateCoordinate(minutesRotation, CENTER_GAP_AND_CIRCLE_RADIUS, mMinuteStart);
+        Vector2 minuteEnd = rotateCoordinate(minutesRotation, mMinuteHandLength, mMinuteEnd);
 
-        Vector2 secondStart = rotateCoordinate(180 + secondsRotation, mSecondHandLength2);
-        Vector2 secondEnd = rotateCoordinate(secondsRotation, mSecondHandLength);
+        PaintBucket.PaintSet paints = paintBucket.getPaints(ws, false);
+        DrawLine(canvas, hourStart, hourEnd, paints.hour);
+        DrawLine(canvas, minuteStart, minuteEnd, paints.minute);
+        if (ws != WatchState.FULL) { //draw black over the hour and minute hand
+            DrawLine(canvas, hourStart, hourEnd, paints.hourInset);
+            DrawLine(canvas, minuteStart, minuteEnd, paints.minuteInset);
+        }
+    }
 
-        DrawLine(canvas, hourStart, hourEnd, mPaintBucket.getHourPaint());
-        DrawLine(canvas, minuteStart, minuteEnd, mPaintBucket.getMinutePaint());
+    /* Draws the second hand and center cap; in ambient only the cap is drawn */
+    private void drawSecondHandLayer(Canvas canvas, TimeAngles timeAngles, WatchState ws) {
+        PaintBucket.PaintSet paints = mPaintBucket.getPaints(ws, false);
         if (ws == WatchState.FULL) {
-            DrawLine(canvas, secondStart, secondEnd, mPaintBucket.getSecondPaint());
-            canvas.drawCircle(center.x, center.y, CENTER_GAP_AND_CIRCLE_RADIUS, mPaintBucket.getSecondPaint());
-        } else { //draw black over the hour and minute hand
-            DrawLine(canvas, hourStart, hourEnd, mPaintBucket.getHourInsetPaint());
-            DrawLine(canvas, minuteStart, minuteEnd, mPaintBucket.getMinuteInsetPaint());
-            canvas.drawCircle(center.x, center.y, CENTER_GAP_AND_CIRCLE_RADIUS, mPaintBucket.getSmallTickPaint());
+            final float secondsRotation = timeAngles.getSecondDegrees();
+            Vector2 secondStart = rotateCoordinate(180 + secondsRotation, mSecondHandLength2, mScratchStart);
+            Vector2 secondEnd = rotateCoordinate(secondsRotation, mSecondHandLength, mScratchEnd);
+            DrawLine(canvas, secondStart, secondEnd, paints.second);
+            canvas.drawCircle(center.x, center.y, CENTER_GAP_AND_CIRCLE_RADIUS, paints.second);
+        } else {
+            canvas.drawCircle(center.x, center.y, CENTER_GAP_AND_CIRCLE_RADIUS, paints.smallTick);
         }
     }
 
     /* Draws a single line */
-    private void DrawLine(Canvas canvas, Vector2 start, Vector2 end, BinaryPaint paint) {
+    private void DrawLine(Canvas canvas, Vector2 start, Vector2 end, Paint paint) {
         canvas.drawLine(start.x, start.y, end.x, end.y, paint);
     }
 
+    /* Length of the second hand in pixels */
+    public float getSecondHandLength() {
+        return mSecondHandLength;
+    }
+
     /**
      * Call this when the screen resolution changes.
      *
@@ -278,6 +941,8 @@ public class WatchPainter {
          * insets, so that, on round watches with a "chin", the watch face is centered on the
          * entire screen, not just the usable portion.
          */
+        cancelPrebakes();
+        backgrounds.clearPending();
         center.x = width / 2f;
         center.y = height / 2f;
 
@@ -288,15 +953,28 @@ public class WatchPainter {
         mSecondHandLength2 = center.x * SECOND_HAND_LENGTH2;
         mMinuteHandLength = center.x * MINUTE_HAND_LENGTH;
         mHourHandLength = center.x * HOUR_HAND_LENGTH;
+        mTrigTable.resize(center.x);
 
         tickData.smallTickRadius = center.x - 17;
         tickData.endSmallTickRadius = center.x - 10;
         tickData.bigTickRadius = center.x - 25;
         tickData.bigInsetRadius = center.x - 24;
+        /*
+         * The date painters' geometry is read by BackgroundBaker while it draws the date,
+         * so it changes under the same lock as the ticks.
+         */
+        synchronized (mDecorationLock) {
+            buildTickGeometry();
+            mDatePainter.OnCanvasChange(width, height);
+            mLowBitDatePainter.OnCanvasChange(width, height);
+        }
 
         /*
          * Update any dependencies
          */
-        mDatePainter.OnCanvasChange(width, height);
+        mLowBitBackground.resize(width, height);
+        mHandsLayer.resize(width, height);
+        mChargingBackground.resize(width, height);
+        mLastSecondHandBoundsValid = false;
     }
 }
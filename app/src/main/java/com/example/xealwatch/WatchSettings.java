@@ -0,0 +1,174 @@
+package com.example.xealwatch;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Color;
+import android.net.Uri;
+
+/**
+ * User-selectable rendering options, stored in shared preferences.
+ * Set from WatchFaceConfigActivity; the engine listens for changes and applies them.
+ */
+public class WatchSettings {
+    private static final String PREFERENCES_NAME = "xealwatch_settings";
+
+    private static final String KEY_DIRTY_REGION_MODE = "dirty_region_mode";
+    private static final String KEY_FRAME_RATE_MODE = "frame_rate_mode";
+    private static final String KEY_MEMORY_BUDGET_MODE = "memory_budget_mode";
+    private static final String KEY_CROP_BACKGROUND = "crop_background_to_surface";
+    private static final String KEY_AUTO_HAND_COLOR = "auto_hand_color";
+    private static final String KEY_BACKGROUND_PHOTO_URI = "background_photo_uri";
+    private static final String KEY_BACKGROUND_PHOTO_PICKED_AT = "background_photo_picked_at";
+    private static final String KEY_BACKGROUND_TINT_COLOR = "background_tint_color";
+    private static final String KEY_VSYNC_PACING = "vsync_pacing";
+
+    private final SharedPreferences mPreferences;
+
+    public WatchSettings(Context context) {
+        mPreferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return whether interactive frames should only repaint the area swept by the second hand
+     */
+    public boolean isDirtyRegionMode() {
+        return mPreferences.getBoolean(KEY_DIRTY_REGION_MODE, false);
+    }
+
+    public void setDirtyRegionMode(boolean dirtyRegionMode) {
+        mPreferences.edit().putBoolean(KEY_DIRTY_REGION_MODE, dirtyRegionMode).apply();
+    }
+
+    /**
+     * @return the user-selected interactive frame rate mode
+     */
+    public FrameRateGovernor.Mode getFrameRateMode() {
+        String mode = mPreferences.getString(KEY_FRAME_RATE_MODE, FrameRateGovernor.Mode.SMOOTH.name());
+        try {
+            return FrameRateGovernor.Mode.valueOf(mode);
+        } catch (IllegalArgumentException e) {
+            return FrameRateGovernor.Mode.SMOOTH;
+        }
+    }
+
+    public void setFrameRateMode(FrameRateGovernor.Mode mode) {
+        mPreferences.edit().putString(KEY_FRAME_RATE_MODE, mode.name()).apply();
+    }
+
+    /**
+     * @return whether to trade some background quality and rebuild time for a smaller heap
+     */
+    public boolean isMemoryBudgetMode() {
+        return mPreferences.getBoolean(KEY_MEMORY_BUDGET_MODE, false);
+    }
+
+    public void setMemoryBudgetMode(boolean memoryBudgetMode) {
+        mPreferences.edit().putBoolean(KEY_MEMORY_BUDGET_MODE, memoryBudgetMode).apply();
+    }
+
+    /**
+     * @return whether the background should be scaled to cover the surface and cropped to it,
+     * rather than scaled to the surface width
+     */
+    public boolean isCropBackgroundToSurface() {
+        return mPreferences.getBoolean(KEY_CROP_BACKGROUND, false);
+    }
+
+    public void setCropBackgroundToSurface(boolean cropToSurface) {
+        mPreferences.edit().putBoolean(KEY_CROP_BACKGROUND, cropToSurface).apply();
+    }
+
+    /**
+     * @return whether hand colors should be picked from the background image
+     */
+    public boolean isAutoHandColor() {
+        return mPreferences.getBoolean(KEY_AUTO_HAND_COLOR, false);
+    }
+
+    public void setAutoHandColor(boolean autoHandColor) {
+        mPreferences.edit().putBoolean(KEY_AUTO_HAND_COLOR, autoHandColor).apply();
+    }
+
+    /**
+     * @return the photo the user picked to use as the background, opened through the
+     * ContentResolver, or null for the built-in background
+     */
+    public Uri getBackgroundPhotoUri() {
+        String uri = mPreferences.getString(KEY_BACKGROUND_PHOTO_URI, null);
+        return uri != null ? Uri.parse(uri) : null;
+    }
+
+    /**
+     * @return when the background photo was picked, in milliseconds since the epoch
+     */
+    public long getBackgroundPhotoPickedAt() {
+        return mPreferences.getLong(KEY_BACKGROUND_PHOTO_PICKED_AT, 0);
+    }
+
+    /**
+     * Sets the photo to use as the background. The caller must already hold a persisted
+     * read permission for it.
+     *
+     * @param uri the photo, or null for the built-in background
+     */
+    public void setBackgroundPhotoUri(Uri uri) {
+        mPreferences.edit()
+                .putString(KEY_BACKGROUND_PHOTO_URI, uri != null ? uri.toString() : null)
+                .putLong(KEY_BACKGROUND_PHOTO_PICKED_AT, System.currentTimeMillis())
+                .apply();
+    }
+
+    /**
+     * @return color to tint a greyscale copy of the background with,
+     * or Color.TRANSPARENT to show the background in its own colours
+     */
+    public int getBackgroundTintColor() {
+        return mPreferences.getInt(KEY_BACKGROUND_TINT_COLOR, Color.TRANSPARENT);
+    }
+
+    /**
+     * @param tintColor color to tint the background with, or Color.TRANSPARENT for none
+     */
+    public void setBackgroundTintColor(int tintColor) {
+        mPreferences.edit().putInt(KEY_BACKGROUND_TINT_COLOR, tintColor).apply();
+    }
+
+    /**
+     * @return whether interactive frames should be paced off display vsync
+     * rather than Handler delays
+     */
+    public boolean isVsyncPacing() {
+        return mPreferences.getBoolean(KEY_VSYNC_PACING, false);
+    }
+
+    public void setVsyncPacing(boolean vsyncPacing) {
+        mPreferences.edit().putBoolean(KEY_VSYNC_PACING, vsyncPacing).apply();
+    }
+
+    /**
+     * @param key a key that changed, as passed to an OnSharedPreferenceChangeListener
+     * @return whether the change needs the background decoded and baked again; automatic
+     * hand colors are picked as part of that
+     */
+    public static boolean isBackgroundKey(String key) {
+        // Written with every photo change, even re-picking the same photo, unlike the URI itself.
+        return KEY_BACKGROUND_PHOTO_PICKED_AT.equals(key)
+                || KEY_CROP_BACKGROUND.equals(key)
+                || KEY_BACKGROUND_TINT_COLOR.equals(key)
+                || KEY_AUTO_HAND_COLOR.equals(key);
+    }
+
+    /**
+     * Listens for settings changes. Shared preferences only keep a weak reference to the
+     * listener, so the caller must keep its own.
+     *
+     * @param listener called on the main thread with the key that changed
+     */
+    public void registerListener(SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        mPreferences.registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    public void unregisterListener(SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        mPreferences.unregisterOnSharedPreferenceChangeListener(listener);
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.xealwatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.util.TimeZone;
+
+/**
+ * Checks that charge progress shows in every state. Frames at two charge levels are drawn at
+ * the same time, so the only ticks that differ are those lit at one level and not the other:
+ * ticks 18 to 41, which lie between 3 and 9 o'clock in the lower half of the face.
+ */
+@RunWith(RobolectricTestRunner.class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class ChargeProgressTest {
+    private static final int SIZE = 454;
+    /* 2021-01-15 12:00 UTC; both hands point up, away from the ticks that change */
+    private static final long NOON_MILLIS = 1610712000000L;
+    private static final float LOW_CHARGE = 30;
+    private static final float HIGH_CHARGE = 70;
+
+    private Bitmap mLowFrame;
+    private Bitmap mHighFrame;
+    private Bitmap mBackground;
+    private Bitmap mGreyBackground;
+    private WatchPainter mPainter;
+    private final TimeAngles mTimeAngles = new TimeAngles();
+
+    @Before
+    public void setUp() {
+        mLowFrame = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        mHighFrame = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        mBackground = TestBackgrounds.load(SIZE);
+        mGreyBackground = PixelPipeline.createVariants(mBackground, true, false, Color.TRANSPARENT).greyscale;
+        mPainter = new WatchPainter(new PaintBucket(Color.WHITE, Color.RED, Color.GREEN));
+        mTimeAngles.setTimeZone(TimeZone.getTimeZone("UTC"));
+        mTimeAngles.update(NOON_MILLIS);
+        mPainter.updateSurface(SIZE, SIZE);
+        mPainter.cacheBackgrounds(mBackground, mGreyBackground, mTimeAngles.getDayOfMonth());
+    }
+
+    @After
+    public void tearDown() {
+        mLowFrame.recycle();
+        mHighFrame.recycle();
+        mBackground.recycle();
+        mGreyBackground.recycle();
+    }
+
+    @Test
+    public void showsProgressInLowBitAmbient() {
+        assertProgressShows(WatchState.BLACK);
+    }
+
+    @Test
+    public void showsProgressInAmbient() {
+        assertProgressShows(WatchState.GRAY);
+    }
+
+    @Test
+    public void showsProgressInInteractive() {
+        assertProgressShows(WatchState.FULL);
+    }
+
+    private void assertProgressShows(WatchState ws) {
+        draw(mLowFrame, ws, LOW_CHARGE);
+        draw(mHighFrame, ws, HIGH_CHARGE);
+
+        int[] lowRow = new int[SIZE];
+        int[] highRow = new int[SIZE];
+        long upperDifferences = 0;
+        long lowerDifferences = 0;
+        for (int y = 0; y < SIZE; y++) {
+            mLowFrame.getPixels(lowRow, 0, SIZE, 0, y, SIZE, 1);
+            mHighFrame.getPixels(highRow, 0, SIZE, 0, y, SIZE, 1);
+            for (int x = 0; x < SIZE; x++) {
+                if (lowRow[x] == highRow[x]) continue;
+                if (y < SIZE / 2) {
+                    upperDifferences++;
+                } else {
+                    lowerDifferences++;
+                }
+            }
+        }
+        assertTrue(ws + " frames at " + LOW_CHARGE + "% and " + HIGH_CHARGE + "% charge look the same",
+                lowerDifferences > 0);
+        assertEquals(ws + " pixels that changed outside the ticks between the two charge levels",
+                0, upperDifferences);
+    }
+
+    private void draw(Bitmap frame, WatchState ws, float percent) {
+        ChargingStatus charging = new ChargingStatus();
+        charging.isCharging = true;
+        charging.percent = percent;
+        Canvas canvas = new Canvas(frame);
+        if (ws == WatchState.BLACK) {
+            mPainter.drawLowBitFrame(canvas, mTimeAngles, charging, mTimeAngles.getDayOfMonth());
+        } else {
+            mPainter.drawFrame(canvas, mTimeAngles, ws, charging, mTimeAngles.getDayOfMonth());
+        }
+    }
+}
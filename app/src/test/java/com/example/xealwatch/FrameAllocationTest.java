@@ -0,0 +1,130 @@
+package com.example.xealwatch;
+
+import static org.junit.Assert.assertEquals;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.util.TimeZone;
+
+/**
+ * Renders frames through the painter's frame paths and fails if any of them allocates,
+ * since a GC pause on the watch shows up as second hand stutter. Allocations are counted
+ * on the test thread only, in bytes, so a single allocation in the frame path fails.
+ * The test JVM's JIT and Robolectric's call site linking occasionally allocate on the
+ * test thread too, so frames are measured in several rounds and a path only fails if
+ * every round allocated. Anything the frame path allocates per frame, or per minute,
+ * lands in every round.
+ */
+@RunWith(RobolectricTestRunner.class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class FrameAllocationTest {
+    private static final int SIZE = 454;
+    /* 2021-01-15 12:00 UTC; far enough from midnight that no date rollover rebuild is measured */
+    private static final long START_MILLIS = 1610712000000L;
+    private static final long FRAME_STEP_MS = 33;
+    /* Enough frames to JIT compile the frame path and build every cached layer it uses */
+    private static final int WARMUP_FRAMES = 2000;
+    /* Over a simulated minute per round, so the hands layer is redrawn in every round */
+    private static final int FRAMES_PER_ROUND = 2000;
+    private static final int ROUNDS = 5;
+
+    private Bitmap mTarget;
+    private Bitmap mBackground;
+    private Bitmap mGreyBackground;
+    private Canvas mCanvas;
+    private WatchPainter mPainter;
+    private final TimeAngles mTimeAngles = new TimeAngles();
+    private final ChargingStatus mNotCharging = new ChargingStatus();
+    private final ChargingStatus mCharging = new ChargingStatus();
+    private long mNow = START_MILLIS;
+
+    @Before
+    public void setUp() {
+        mTarget = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        mCanvas = new Canvas(mTarget);
+        mBackground = TestBackgrounds.load(SIZE);
+        mGreyBackground = PixelPipeline.createVariants(mBackground, true, false, Color.TRANSPARENT).greyscale;
+        mPainter = new WatchPainter(new PaintBucket(Color.WHITE, Color.RED, Color.GREEN));
+        mTimeAngles.setTimeZone(TimeZone.getTimeZone("UTC"));
+        mTimeAngles.update(mNow);
+        mPainter.updateSurface(SIZE, SIZE);
+        mPainter.cacheBackgrounds(mBackground, mGreyBackground, mTimeAngles.getDayOfMonth());
+        mCharging.isCharging = true;
+        mCharging.percent = 50;
+    }
+
+    @After
+    public void tearDown() {
+        mTarget.recycle();
+        mBackground.recycle();
+        mGreyBackground.recycle();
+    }
+
+    @Test
+    public void drawFrameDoesNotAllocate() {
+        assertNoAllocation("drawFrame FULL", () -> mPainter.drawFrame(
+                mCanvas, mTimeAngles, WatchState.FULL, mNotCharging, mTimeAngles.getDayOfMonth()));
+    }
+
+    @Test
+    public void drawFrameInAmbientDoesNotAllocate() {
+        assertNoAllocation("drawFrame GRAY", () -> mPainter.drawFrame(
+                mCanvas, mTimeAngles, WatchState.GRAY, mNotCharging, mTimeAngles.getDayOfMonth()));
+    }
+
+    @Test
+    public void drawFrameWhileChargingDoesNotAllocate() {
+        assertNoAllocation("drawFrame FULL charging", () -> mPainter.drawFrame(
+                mCanvas, mTimeAngles, WatchState.FULL, mCharging, mTimeAngles.getDayOfMonth()));
+    }
+
+    @Test
+    public void drawLowBitFrameDoesNotAllocate() {
+        assertNoAllocation("drawLowBitFrame", () -> mPainter.drawLowBitFrame(
+                mCanvas, mTimeAngles, mNotCharging, mTimeAngles.getDayOfMonth()));
+    }
+
+    @Test
+    public void getDirtyRegionDoesNotAllocate() {
+        Rect dirty = new Rect();
+        assertNoAllocation("getDirtyRegion", () -> {
+            if (!mPainter.getDirtyRegion(mTimeAngles, WatchState.FULL, mNotCharging,
+                    mTimeAngles.getDayOfMonth(), dirty)) {
+                mPainter.drawFrame(mCanvas, mTimeAngles, WatchState.FULL, mNotCharging, mTimeAngles.getDayOfMonth());
+            }
+        });
+    }
+
+    /* Draws warm-up frames, then fails if every round of measured frames allocated on this thread */
+    private void assertNoAllocation(String name, Runnable frame) {
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            mTimeAngles.update(mNow += FRAME_STEP_MS);
+            frame.run();
+        }
+
+        // On some JDKs reading the counter allocates a few bytes itself.
+        long overhead = -RenderBenchmark.getThreadBytesAllocated() + RenderBenchmark.getThreadBytesAllocated();
+        long fewestBytes = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS && fewestBytes > 0; round++) {
+            long bytesBefore = RenderBenchmark.getThreadBytesAllocated();
+            for (int i = 0; i < FRAMES_PER_ROUND; i++) {
+                mTimeAngles.update(mNow += FRAME_STEP_MS);
+                frame.run();
+            }
+            long bytesAfter = RenderBenchmark.getThreadBytesAllocated();
+            fewestBytes = Math.min(fewestBytes, bytesAfter - bytesBefore - overhead);
+        }
+        assertEquals(name + " allocated in every round of " + FRAMES_PER_ROUND + " frames; fewest bytes",
+                0, fewestBytes);
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.xealwatch;
+
+import static org.junit.Assume.assumeTrue;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ColorMatrix;
+import android.graphics.ColorMatrixColorFilter;
+import android.graphics.Paint;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.lang.management.ManagementFactory;
+import java.util.Calendar;
+import java.util.Locale;
+
+/**
+ * Microbenchmarks for the painter, time maths and background generation, run on the JVM
+ * against offscreen bitmaps drawn by Robolectric's native graphics, at common surface sizes.
+ * Reports operations per second and bytes allocated per operation, so changes can be
+ * compared against a baseline. Skipped unless Gradle is run with -Pbenchmark:
+ * {@code ./gradlew testDebugUnitTest --tests '*RenderBenchmark' -Pbenchmark}
+ * Results are printed to the test's standard output, which the test report keeps.
+ */
+@RunWith(RobolectricTestRunner.class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class RenderBenchmark {
+    static final String BENCHMARK_PROPERTY = "xealwatch.benchmark";
+
+    static final int[] SURFACE_SIZES = {320, 390, 454};
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final long MEASURE_NANOS = 500L * 1000 * 1000;
+    private static final int FRAME_STEP_MS = 33;
+    private static final int BENCHMARK_TINT = 0xff4080ff;
+    /* Not a divisor of 360, so lookups don't keep landing on the same table entries */
+    private static final float TRIG_STEP_DEGREES = 0.37f;
+
+    /* Looked up once, since getThreadMXBean() itself allocates */
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /* Keeps results alive so pure computations aren't optimized away */
+    private float mSink = 0;
+
+    @Test
+    public void runAllSizes() {
+        assumeTrue("run with -Pbenchmark", Boolean.getBoolean(BENCHMARK_PROPERTY));
+        for (int size : SURFACE_SIZES) {
+            runAtSize(size);
+        }
+        System.out.println("benchmark sink=" + mSink);
+    }
+
+    private void runAtSize(int size) {
+        final Bitmap target = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(target);
+        final Bitmap background = TestBackgrounds.load(size);
+        final Bitmap greyBackground = createGrayBitmap(background);
+        final PaintBucket paintBucket = new PaintBucket(Color.WHITE, Color.RED, Color.GREEN);
+        final WatchPainter painter = new WatchPainter(paintBucket);
+        final DatePainter datePainter = new DatePainter(paintBucket);
+        final ChargingStatus notCharging = new ChargingStatus();
+        final Calendar calendar = Calendar.getInstance();
+        final TimeAngles timeAngles = new TimeAngles();
+        final long[] now = {System.currentTimeMillis()};
+        painter.updateSurface(size, size);
+        datePainter.OnCanvasChange(size, size);
+        painter.cacheBackgrounds(background, greyBackground, calendar.get(Calendar.DATE));
+
+        measure("drawFrame", size, () -> {
+            timeAngles.update(now[0] += FRAME_STEP_MS);
+            painter.drawFrame(canvas, timeAngles, WatchState.FULL, notCharging, timeAngles.getDayOfMonth());
+        });
+        measure("drawLowBitFrame", size, () -> {
+            timeAngles.update(now[0] += FRAME_STEP_MS);
+            painter.drawLowBitFrame(canvas, timeAngles, notCharging, timeAngles.getDayOfMonth());
+        });
+        measure("drawTicks", size,
+                () -> painter.drawTicks(canvas, paintBucket, notCharging, WatchState.FULL));
+        measure("generateCachedBackground", size,
+                () -> painter.generateCachedBackground(background, WatchState.FULL, 1).recycle());
+        measure("DrawDate", size, () -> datePainter.DrawDate(canvas, 28));
+        measure("GetDegreesValue", size, () -> {
+            calendar.setTimeInMillis(calendar.getTimeInMillis() + FRAME_STEP_MS);
+            mSink += TimeDegrees.GetDegreesValue(Calendar.HOUR, calendar)
+                    + TimeDegrees.GetDegreesValue(Calendar.MINUTE, calendar)
+                    + TimeDegrees.GetDegreesValue(Calendar.SECOND, calendar);
+        });
+        measure("TimeAngles", size, () -> {
+            timeAngles.update(now[0] += FRAME_STEP_MS);
+            mSink += timeAngles.getHourDegrees() + timeAngles.getMinuteDegrees() + timeAngles.getSecondDegrees();
+        });
+        final TrigTable trigTable = new TrigTable();
+        final float[] degrees = {0};
+        trigTable.resize(size / 2f);
+        measure("TrigTable", size, () -> {
+            degrees[0] += TRIG_STEP_DEGREES;
+            mSink += trigTable.sinDegrees(degrees[0]) + trigTable.cosDegrees(degrees[0]);
+        });
+        measure("Math.sin/cos", size, () -> {
+            degrees[0] += TRIG_STEP_DEGREES;
+            double radians = Math.toRadians(degrees[0]);
+            mSink += (float) (Math.sin(radians) + Math.cos(radians));
+        });
+        measure("initGrayBackgroundBitmap", size,
+                () -> createGrayBitmap(background).recycle());
+        measure("pixelPipelineGrey", size,
+                () -> PixelPipeline.createVariants(background, true, false, Color.TRANSPARENT).greyscale.recycle());
+        measure("pixelPipelineVariants", size, () -> {
+            PixelPipeline.Variants variants = PixelPipeline.createVariants(background, true, true, BENCHMARK_TINT);
+            variants.greyscale.recycle();
+            variants.dimmed.recycle();
+            variants.tinted.recycle();
+        });
+
+        target.recycle();
+        background.recycle();
+        greyBackground.recycle();
+    }
+
+    /*
+     * Runs an operation repeatedly for a fixed time and prints its throughput
+     * and the bytes it allocated per operation on this thread.
+     */
+    private void measure(String name, int size, Runnable operation) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            operation.run();
+        }
+
+        long bytesBefore = getThreadBytesAllocated();
+        long start = System.nanoTime();
+        long elapsed;
+        long iterations = 0;
+        do {
+            operation.run();
+            iterations++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < MEASURE_NANOS);
+        long bytesAfter = getThreadBytesAllocated();
+
+        double opsPerSecond = iterations * 1e9 / elapsed;
+        System.out.println(String.format(Locale.US, "%-26s %3dpx %12.1f ops/s %12.1f bytes/op",
+                name, size, opsPerSecond, (bytesAfter - bytesBefore) / (double) iterations));
+    }
+
+    /**
+     * Creates a desaturated copy of a background image through a ColorMatrix filter.
+     * Backgrounds are built by PixelPipeline; this is the baseline it is measured against.
+     *
+     * @param source background image in full colour
+     * @return a new greyscale bitmap of the same size
+     */
+    private static Bitmap createGrayBitmap(Bitmap source) {
+        Bitmap result = Bitmap.createBitmap(
+                source.getWidth(),
+                source.getHeight(),
+                Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(result);
+        Paint grayPaint = new Paint();
+        ColorMatrix colorMatrix = new ColorMatrix();
+        colorMatrix.setSaturation(0);
+        ColorMatrixColorFilter filter = new ColorMatrixColorFilter(colorMatrix);
+        grayPaint.setColorFilter(filter);
+        canvas.drawBitmap(source, 0, 0, grayPaint);
+        return result;
+    }
+
+    /**
+     * Bytes allocated on the calling thread so far. Only counts this thread, so other
+     * threads in the test JVM don't show up in the results. On some JDKs the call itself
+     * allocates a few bytes.
+     *
+     * @return bytes allocated by the current thread
+     */
+    static long getThreadBytesAllocated() {
+        return THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
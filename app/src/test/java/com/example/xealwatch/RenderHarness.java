@@ -0,0 +1,223 @@
+package com.example.xealwatch;
+
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Renders the face offscreen through Robolectric's native graphics at several surface sizes,
+ * in every WatchState, charging and not, and with burn-in protection in ambient, through the
+ * same drawFrame and drawLowBitFrame calls the engine makes.
+ * framesMatchGoldens compares selected frames against the PNGs in src/test/golden and fails
+ * on any that is missing or differs; the frames it got are written to build/reports/golden.
+ * simulatedDay renders a whole day for every combination and prints frames per second.
+ * After an intended rendering change, record new goldens with
+ * {@code ./gradlew testDebugUnitTest --tests '*RenderHarness' -PrecordGoldens},
+ * then review and commit them with the change.
+ */
+@RunWith(RobolectricTestRunner.class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class RenderHarness {
+    static final String RECORD_PROPERTY = "xealwatch.recordGoldens";
+
+    /* Gradle runs unit tests from the module directory */
+    private static final File GOLDEN_DIR = new File("src/test/golden");
+    private static final File MISMATCH_DIR = new File("build/reports/golden");
+
+    /* 2021-01-15 00:00 UTC; the day is rendered in UTC so goldens don't depend on the machine */
+    private static final long DAY_START_MILLIS = 1610668800000L;
+    private static final int[] SIZES = {320, 390, 454};
+    private static final int[] GOLDEN_SIZES = {320, 454};
+    /* Minutes of the day whose frames are compared against goldens, at 0 seconds */
+    private static final int[] GOLDEN_MINUTES = {0, 10 * 60 + 10};
+    private static final long SIMULATED_DAY_STEP_MILLIS = TimeAngles.MILLIS_PER_MINUTE;
+    /* Battery percentages to render while charging; NOT_CHARGING renders on battery */
+    private static final float NOT_CHARGING = -1;
+    private static final float[] CHARGE_LEVELS = {NOT_CHARGING, 40, 100};
+    /* Largest per-channel difference still counted as a match, to allow for rounding */
+    private static final int CHANNEL_TOLERANCE = 2;
+
+    @Test
+    public void framesMatchGoldens() throws IOException {
+        boolean record = Boolean.getBoolean(RECORD_PROPERTY);
+        File outputDirectory = record ? GOLDEN_DIR : MISMATCH_DIR;
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new IOException("can't create " + outputDirectory.getAbsolutePath());
+        }
+
+        List<String> failures = new ArrayList<>();
+        for (int size : GOLDEN_SIZES) {
+            FaceRenderer renderer = new FaceRenderer(size);
+            for (WatchState ws : WatchState.values()) {
+                for (boolean burnIn : getBurnInModes(ws)) {
+                    for (float chargeLevel : CHARGE_LEVELS) {
+                        for (int minute : GOLDEN_MINUTES) {
+                            renderer.draw(ws, burnIn, chargeLevel, DAY_START_MILLIS + minute * TimeAngles.MILLIS_PER_MINUTE);
+                            String name = getGoldenName(size, ws, burnIn, chargeLevel, minute);
+                            if (record) {
+                                writePng(renderer.getFrame(), new File(GOLDEN_DIR, name));
+                            } else {
+                                String failure = checkGolden(renderer.getFrame(), name);
+                                if (failure != null) failures.add(failure);
+                            }
+                        }
+                    }
+                }
+            }
+            renderer.release();
+        }
+        assertTrue(failures.size() + " golden frames failed, see " + MISMATCH_DIR + ":\n"
+                + String.join("\n", failures), failures.isEmpty());
+    }
+
+    @Test
+    public void simulatedDay() {
+        for (int size : SIZES) {
+            FaceRenderer renderer = new FaceRenderer(size);
+            for (WatchState ws : WatchState.values()) {
+                for (boolean burnIn : getBurnInModes(ws)) {
+                    for (float chargeLevel : CHARGE_LEVELS) {
+                        long frames = 0;
+                        long start = System.nanoTime();
+                        for (long time = DAY_START_MILLIS; time < DAY_START_MILLIS + TimeAngles.MILLIS_PER_DAY;
+                             time += SIMULATED_DAY_STEP_MILLIS) {
+                            renderer.draw(ws, burnIn, chargeLevel, time);
+                            frames++;
+                        }
+                        long elapsed = System.nanoTime() - start;
+                        System.out.println(String.format(Locale.US, "harness %3dpx %-5s %-6s %-10s %6d frames %10.1f fps",
+                                size, ws.name().toLowerCase(Locale.US), burnIn ? "burnin" : "",
+                                getChargeName(chargeLevel), frames, frames * 1e9 / elapsed));
+                    }
+                }
+            }
+            renderer.release();
+        }
+    }
+
+    /* Only ambient frames are shifted for burn-in, so FULL is rendered without it only */
+    private static boolean[] getBurnInModes(WatchState ws) {
+        return ws == WatchState.FULL ? new boolean[]{false} : new boolean[]{false, true};
+    }
+
+    /* One painter drawing into an offscreen surface, set up the way the engine sets it up */
+    private static class FaceRenderer {
+        private final Bitmap mFrame;
+        private final Canvas mCanvas;
+        private final Bitmap mBackground;
+        private final Bitmap mGreyBackground;
+        private final WatchPainter mPainter = new WatchPainter(new PaintBucket(Color.WHITE, Color.RED, Color.GREEN));
+        private final TimeAngles mTimeAngles = new TimeAngles();
+        private final ChargingStatus mChargingStatus = new ChargingStatus();
+
+        FaceRenderer(int size) {
+            mFrame = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+            mCanvas = new Canvas(mFrame);
+            mBackground = TestBackgrounds.load(size);
+            mGreyBackground = PixelPipeline.createVariants(mBackground, true, false, Color.TRANSPARENT).greyscale;
+            mTimeAngles.setTimeZone(TimeZone.getTimeZone("UTC"));
+            mTimeAngles.update(DAY_START_MILLIS);
+            mPainter.updateSurface(size, size);
+            mPainter.cacheBackgrounds(mBackground, mGreyBackground, mTimeAngles.getDayOfMonth());
+        }
+
+        void draw(WatchState ws, boolean burnIn, float chargeLevel, long time) {
+            mPainter.setBurnInProtection(burnIn);
+            mChargingStatus.isCharging = chargeLevel != NOT_CHARGING;
+            mChargingStatus.percent = mChargingStatus.isCharging ? chargeLevel : 100;
+            mTimeAngles.update(time);
+            // BLACK is what the engine draws in low-bit ambient, through its own frame path.
+            if (ws == WatchState.BLACK) {
+                mPainter.drawLowBitFrame(mCanvas, mTimeAngles, mChargingStatus, mTimeAngles.getDayOfMonth());
+            } else {
+                mPainter.drawFrame(mCanvas, mTimeAngles, ws, mChargingStatus, mTimeAngles.getDayOfMonth());
+            }
+        }
+
+        Bitmap getFrame() {
+            return mFrame;
+        }
+
+        void release() {
+            mFrame.recycle();
+            mBackground.recycle();
+            mGreyBackground.recycle();
+        }
+    }
+
+    private static String getChargeName(float chargeLevel) {
+        if (chargeLevel == NOT_CHARGING) return "battery";
+        return "charging" + Math.round(chargeLevel);
+    }
+
+    private static String getGoldenName(int size, WatchState ws, boolean burnIn, float chargeLevel,
+                                        int minuteOfDay) {
+        return String.format(Locale.US, "%dpx-%s%s-%s-%04d.png",
+                size, ws.name().toLowerCase(Locale.US), burnIn ? "-burnin" : "",
+                getChargeName(chargeLevel), minuteOfDay);
+    }
+
+    /* Compares a frame against its golden; returns why it failed, or null if it matches */
+    private static String checkGolden(Bitmap frame, String name) throws IOException {
+        File goldenFile = new File(GOLDEN_DIR, name);
+        Bitmap expected = goldenFile.isFile() ? BitmapFactory.decodeFile(goldenFile.getPath()) : null;
+        if (expected == null) {
+            writePng(frame, new File(MISMATCH_DIR, name));
+            return name + " has no golden";
+        }
+        long mismatched = countMismatchedPixels(expected, frame);
+        expected.recycle();
+        if (mismatched == 0) return null;
+        writePng(frame, new File(MISMATCH_DIR, name));
+        return name + " differs in " + mismatched + " pixels";
+    }
+
+    private static void writePng(Bitmap frame, File file) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            frame.compress(Bitmap.CompressFormat.PNG, 100, out);
+        }
+    }
+
+    /* Pixels where any channel differs by more than CHANNEL_TOLERANCE; all of them if the sizes differ */
+    private static long countMismatchedPixels(Bitmap expected, Bitmap actual) {
+        int width = actual.getWidth();
+        int height = actual.getHeight();
+        if (expected.getWidth() != width || expected.getHeight() != height) return (long) width * height;
+
+        int[] expectedRow = new int[width];
+        int[] actualRow = new int[width];
+        long mismatched = 0;
+        for (int y = 0; y < height; y++) {
+            expected.getPixels(expectedRow, 0, width, 0, y, width, 1);
+            actual.getPixels(actualRow, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x++) {
+                if (!channelsMatch(expectedRow[x], actualRow[x])) mismatched++;
+            }
+        }
+        return mismatched;
+    }
+
+    private static boolean channelsMatch(int expected, int actual) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            int difference = ((expected >> shift) & 0xff) - ((actual >> shift) & 0xff);
+            if (Math.abs(difference) > CHANNEL_TOLERANCE) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.xealwatch;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.File;
+
+/**
+ * Loads the face's real background image for tests that draw through Robolectric's native graphics.
+ * Decoded from the resources directory rather than through R, so the pixels don't depend on
+ * how the test run processed resources. Gradle runs unit tests from the module directory.
+ */
+final class TestBackgrounds {
+    private static final File BACKGROUND_FILE = new File("src/main/res/drawable-nodpi/watchface_service_bg.png");
+
+    private TestBackgrounds() {
+    }
+
+    /**
+     * Decodes the background and scales it to the surface, as the engine does.
+     *
+     * @param size surface width and height in pixels
+     * @return a new bitmap of the given size
+     */
+    static Bitmap load(int size) {
+        Bitmap source = BitmapFactory.decodeFile(BACKGROUND_FILE.getPath());
+        if (source == null) {
+            throw new IllegalStateException("can't decode " + BACKGROUND_FILE.getAbsolutePath());
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(source, size, size, true);
+        if (scaled != source) source.recycle();
+        return scaled;
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.xealwatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+public class TimeAnglesTest {
+    private static final TimeZone NEW_YORK = TimeZone.getTimeZone("America/New_York");
+    /* 2021-03-13 12:00 EST; clocks go forward at 2021-03-14 02:00 EST */
+    private static final long BEFORE_SPRING_FORWARD = 1615654800000L;
+    /* 2021-11-06 12:00 EDT; clocks go back at 2021-11-07 02:00 EDT */
+    private static final long BEFORE_FALL_BACK = 1636214400000L;
+    private static final long STEP_MILLIS = 7 * TimeAngles.MILLIS_PER_SECOND + 13;
+    private static final float DEGREE_TOLERANCE = 0.001f;
+
+    @Test
+    public void matchesCalendarAcrossSpringForwardAndMidnight() {
+        assertMatchesCalendar(NEW_YORK, BEFORE_SPRING_FORWARD, 2 * TimeAngles.MILLIS_PER_DAY);
+    }
+
+    @Test
+    public void matchesCalendarAcrossFallBackAndMidnight() {
+        assertMatchesCalendar(NEW_YORK, BEFORE_FALL_BACK, 2 * TimeAngles.MILLIS_PER_DAY);
+    }
+
+    @Test
+    public void matchesCalendarWithHalfHourOffset() {
+        assertMatchesCalendar(TimeZone.getTimeZone("Asia/Kolkata"), BEFORE_SPRING_FORWARD, TimeAngles.MILLIS_PER_DAY);
+    }
+
+    @Test
+    public void refreshesOnlyAtMidnightAndTransitions() {
+        TimeAngles timeAngles = new TimeAngles();
+        timeAngles.setTimeZone(NEW_YORK);
+        for (long time = BEFORE_SPRING_FORWARD; time < BEFORE_SPRING_FORWARD + 2 * TimeAngles.MILLIS_PER_DAY;
+             time += STEP_MILLIS) {
+            timeAngles.update(time);
+        }
+        // The first update, midnight on the 14th, the 2 a.m. transition and midnight on the 15th
+        assertEquals(4, timeAngles.getRefreshCount());
+    }
+
+    @Test
+    public void refreshesWhenTimeGoesBackwards() {
+        TimeAngles timeAngles = new TimeAngles();
+        timeAngles.setTimeZone(NEW_YORK);
+        timeAngles.update(BEFORE_SPRING_FORWARD + TimeAngles.MILLIS_PER_DAY);
+        timeAngles.update(BEFORE_SPRING_FORWARD);
+        assertEquals(13, timeAngles.getDayOfMonth());
+        assertEquals(12 * 60, timeAngles.getMinuteOfDay());
+    }
+
+    @Test
+    public void switchesOffsetExactlyAtTransition() {
+        TimeAngles timeAngles = new TimeAngles();
+        timeAngles.setTimeZone(NEW_YORK);
+        // 2021-03-14 07:00 UTC is 02:00 EST, which becomes 03:00 EDT
+        long transition = 1615705200000L;
+        timeAngles.update(transition - 1);
+        assertEquals(2 * 60 - 1, timeAngles.getMinuteOfDay());
+        timeAngles.update(transition);
+        assertEquals(3 * 60, timeAngles.getMinuteOfDay());
+    }
+
+    @Test
+    public void changesDateExactlyAtMidnight() {
+        TimeAngles timeAngles = new TimeAngles();
+        timeAngles.setTimeZone(NEW_YORK);
+        // 2021-03-14 05:00 UTC is midnight EST
+        long midnight = 1615698000000L;
+        timeAngles.update(midnight - 1);
+        assertEquals(13, timeAngles.getDayOfMonth());
+        assertEquals(TimeAngles.MINUTES_PER_DAY - 1, timeAngles.getMinuteOfDay());
+        timeAngles.update(midnight);
+        assertEquals(14, timeAngles.getDayOfMonth());
+        assertEquals(0, timeAngles.getMinuteOfDay());
+    }
+
+    private static void assertMatchesCalendar(TimeZone timeZone, long start, long duration) {
+        TimeAngles timeAngles = new TimeAngles();
+        timeAngles.setTimeZone(timeZone);
+        Calendar calendar = Calendar.getInstance(timeZone);
+        for (long time = start; time < start + duration; time += STEP_MILLIS) {
+            timeAngles.update(time);
+            calendar.setTimeInMillis(time);
+            String at = "at " + time;
+
+            int hour = calendar.get(Calendar.HOUR_OF_DAY);
+            int minute = calendar.get(Calendar.MINUTE);
+            float seconds = calendar.get(Calendar.SECOND) + calendar.get(Calendar.MILLISECOND) / 1000f;
+            assertEquals(at, calendar.get(Calendar.DATE), timeAngles.getDayOfMonth());
+            assertEquals(at, hour * 60 + minute, timeAngles.getMinuteOfDay());
+            assertEquals(at, seconds * 6, timeAngles.getSecondDegrees(), DEGREE_TOLERANCE);
+            assertEquals(at, (minute + seconds / 60) * 6, timeAngles.getMinuteDegrees(), DEGREE_TOLERANCE);
+            assertEquals(at, ((hour % 12) + minute / 60f + seconds / 3600) * 30, timeAngles.getHourDegrees(),
+                    DEGREE_TOLERANCE);
+            assertTrue(at, timeAngles.getMinuteResolutionMinuteDegrees() == minute * 6f);
+        }
+    }
+}
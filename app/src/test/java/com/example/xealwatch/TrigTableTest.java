@@ -0,0 +1,55 @@
+package com.example.xealwatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TrigTableTest {
+    /* Must match TrigTable.MAX_ERROR_PIXELS */
+    private static final double MAX_ERROR_PIXELS = 0.01;
+    /* Slack for float rounding in the table and the interpolation */
+    private static final double FLOAT_EPSILON = 1e-6;
+    private static final float[] RADII = {1, 160, 195, 227, 1000};
+    private static final float DEGREE_STEP = 0.01f;
+
+    @Test
+    public void interpolatedValuesStayWithinErrorBoundAtRadius() {
+        TrigTable table = new TrigTable();
+        for (float radius : RADII) {
+            table.resize(radius);
+            double tolerance = MAX_ERROR_PIXELS / Math.max(radius, 1) + FLOAT_EPSILON;
+            for (int step = -72000; step <= 72000; step++) {
+                float degrees = step * DEGREE_STEP;
+                double radians = Math.toRadians(degrees);
+                assertEquals("sin " + degrees + " at radius " + radius,
+                        Math.sin(radians), table.sinDegrees(degrees), tolerance);
+                assertEquals("cos " + degrees + " at radius " + radius,
+                        Math.cos(radians), table.cosDegrees(degrees), tolerance);
+            }
+        }
+    }
+
+    @Test
+    public void ticksLandExactlyOnTableEntries() {
+        TrigTable table = new TrigTable();
+        for (float radius : RADII) {
+            table.resize(radius);
+            assertEquals(0, table.getSize() % 60);
+            for (int tick = 0; tick < 60; tick++) {
+                double radians = 2 * Math.PI * tick / 60;
+                assertEquals((float) Math.sin(radians), table.sinTick(tick), FLOAT_EPSILON);
+                assertEquals((float) Math.cos(radians), table.cosTick(tick), FLOAT_EPSILON);
+            }
+        }
+    }
+
+    @Test
+    public void tableGrowsWithRadius() {
+        TrigTable table = new TrigTable();
+        table.resize(160);
+        int small = table.getSize();
+        table.resize(1000);
+        assertTrue(table.getSize() > small);
+    }
+}